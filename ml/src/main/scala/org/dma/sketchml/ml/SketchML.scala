@@ -4,10 +4,12 @@ import org.apache.spark.{SparkConf, SparkContext}
 import org.dma.sketchml.ml.algorithm._
 import org.dma.sketchml.ml.common.Constants
 import org.dma.sketchml.ml.conf.MLConf
+import org.dma.sketchml.ml.util.SketchKryoRegistrator
 
 object SketchML {
   def main(args: Array[String]): Unit = {
     val sparkConf = new SparkConf().setAppName("SketchML")
+      .setIfMissing("spark.kryo.registrator", classOf[SketchKryoRegistrator].getName)
     implicit val sc = SparkContext.getOrCreate(sparkConf)
     val mlConf = MLConf(sparkConf)
     val model = mlConf.algo match {
@@ -5,11 +5,13 @@ import org.apache.spark.ml.linalg.DenseVector
 import org.apache.spark.rdd.RDD
 import org.apache.spark.storage.StorageLevel
 import org.apache.spark.{SparkContext, SparkEnv}
+import org.dma.sketchml.ml.common.Constants
 import org.dma.sketchml.ml.data.{DataSet, Parser}
 import org.dma.sketchml.ml.conf.MLConf
 import org.dma.sketchml.ml.gradient.Gradient
 import org.dma.sketchml.ml.objective.{GradientDescent, Loss}
 import org.dma.sketchml.ml.util.ValidationUtil
+import org.dma.sketchml.sketch.base.QuantileSketch
 import org.slf4j.{Logger, LoggerFactory}
 
 import scala.collection.mutable.ArrayBuffer
@@ -142,10 +144,17 @@ abstract class GeneralizedLinearModel(@transient protected val conf: MLConf) ext
 
   protected def aggregateAndUpdate(epoch: Int, batch: Int): Unit = {
     val aggrStart = System.currentTimeMillis()
-    val sum = Gradient.sum(
-      conf.featureNum,
+    val grads = if (conf.compressor == Constants.GRADIENT_COMPRESSOR_SKETCH && conf.sketchGlobalSplits) {
+      // executors ship quantile sketches instead of gradient values,
+      // the driver merges them so that all executors share the same splits
+      val qSketch = QuantileSketch.treeMerge(
+        executors.map(_ => Gradient.summarize(gradient)).collect())
+      val bcSketch = sc.broadcast(qSketch)
+      executors.map(_ => Gradient.compress(gradient, bcConf.value, bcSketch.value)).collect()
+    } else {
       executors.map(_ => Gradient.compress(gradient, bcConf.value)).collect()
-    )
+    }
+    val sum = Gradient.sum(conf.featureNum, grads)
     val grad = Gradient.compress(sum, conf)
     grad.timesBy(1.0 / conf.workerNum)
     logger.info(s"Epoch[$epoch] batch $batch aggregate gradients cost "
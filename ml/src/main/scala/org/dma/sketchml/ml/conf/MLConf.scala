@@ -2,7 +2,7 @@ package org.dma.sketchml.ml.conf
 
 import org.apache.spark.SparkConf
 import org.dma.sketchml.ml.common.Constants._
-import org.dma.sketchml.sketch.base.{Quantizer, SketchMLException}
+import org.dma.sketchml.sketch.base.{BinaryEncoder, Quantizer, SketchMLException}
 import org.dma.sketchml.sketch.sketch.frequency.{GroupedMinMaxSketch, MinMaxSketch}
 
 object MLConf {
@@ -34,12 +34,28 @@ object MLConf {
   val DEFAULT_SKETCH_GRADIENT_COMPRESSOR: String = GRADIENT_COMPRESSOR_SKETCH
   val SKETCH_QUANTIZATION_BIN_NUM: String = "spark.sketchml.quantization.bin.num"
   val DEFAULT_SKETCH_QUANTIZATION_BIN_NUM: Int = Quantizer.DEFAULT_BIN_NUM
+  val SKETCH_QUANTIZATION_STOCHASTIC: String = "spark.sketchml.quantization.stochastic"
+  val DEFAULT_SKETCH_QUANTIZATION_STOCHASTIC: Boolean = false
+  val SKETCH_QUANTIZATION_TARGET_ERROR: String = "spark.sketchml.quantization.target.error"
+  val DEFAULT_SKETCH_QUANTIZATION_TARGET_ERROR: Double = 0.0
   val SKETCH_MINMAXSKETCH_GROUP_NUM: String = "spark.sketchml.minmaxsketch.group.num"
   val DEFAULT_SKETCH_MINMAXSKETCH_GROUP_NUM: Int = GroupedMinMaxSketch.DEFAULT_MINMAXSKETCH_GROUP_NUM
   val SKETCH_MINMAXSKETCH_ROW_NUM: String = "spark.sketchml.minmaxsketch.row.num"
   val DEFAULT_SKETCH_MINMAXSKETCH_ROW_NUM: Int = MinMaxSketch.DEFAULT_MINMAXSKETCH_ROW_NUM
   val SKETCH_MINMAXSKETCH_COL_RATIO: String = "spark.sketchml.minmaxsketch.col.ratio"
   val DEFAULT_SKETCH_MINMAXSKETCH_COL_RATIO: Double = GroupedMinMaxSketch.DEFAULT_MINMAXSKETCH_COL_RATIO
+  val SKETCH_MINMAXSKETCH_KEY_ENCODER: String = "spark.sketchml.minmaxsketch.key.encoder"
+  val DEFAULT_SKETCH_MINMAXSKETCH_KEY_ENCODER: String = GroupedMinMaxSketch.DEFAULT_KEY_ENCODER_TYPE.toString
+  val SKETCH_MINMAXSKETCH_TABLE_ENCODER: String = "spark.sketchml.minmaxsketch.table.encoder"
+  val DEFAULT_SKETCH_MINMAXSKETCH_TABLE_ENCODER: String = MinMaxSketch.DEFAULT_TABLE_ENCODER_TYPE.toString
+  val SKETCH_MINMAXSKETCH_BLOCKED: String = "spark.sketchml.minmaxsketch.blocked"
+  val DEFAULT_SKETCH_MINMAXSKETCH_BLOCKED: Boolean = false
+  val SKETCH_MINMAXSKETCH_CODEBOOK_REUSE_TOLERANCE: String = "spark.sketchml.minmaxsketch.codebook.reuse.tolerance"
+  val DEFAULT_SKETCH_MINMAXSKETCH_CODEBOOK_REUSE_TOLERANCE: Double = 0.0
+  val SKETCH_QUANTILE_GLOBAL_SPLITS: String = "spark.sketchml.quantile.global.splits"
+  val DEFAULT_SKETCH_QUANTILE_GLOBAL_SPLITS: Boolean = false
+  val SKETCH_QUANTILE_DRIFT_THRESHOLD: String = "spark.sketchml.quantile.drift.threshold"
+  val DEFAULT_SKETCH_QUANTILE_DRIFT_THRESHOLD: Double = 0.0
   // FixedPoint Conf
   val FIXED_POINT_BIT_NUM: String = "spark.sketchml.fixed.point.bit.num"
   val DEFAULT_FIXED_POINT_BIT_NUM = 8
@@ -62,7 +78,18 @@ object MLConf {
     sparkConf.getInt(SKETCH_MINMAXSKETCH_GROUP_NUM, DEFAULT_SKETCH_MINMAXSKETCH_GROUP_NUM),
     sparkConf.getInt(SKETCH_MINMAXSKETCH_ROW_NUM, DEFAULT_SKETCH_MINMAXSKETCH_ROW_NUM),
     sparkConf.getDouble(SKETCH_MINMAXSKETCH_COL_RATIO, DEFAULT_SKETCH_MINMAXSKETCH_COL_RATIO),
-    sparkConf.getInt(FIXED_POINT_BIT_NUM, DEFAULT_FIXED_POINT_BIT_NUM)
+    BinaryEncoder.EncoderType.valueOf(sparkConf.get(
+      SKETCH_MINMAXSKETCH_KEY_ENCODER, DEFAULT_SKETCH_MINMAXSKETCH_KEY_ENCODER)),
+    BinaryEncoder.EncoderType.valueOf(sparkConf.get(
+      SKETCH_MINMAXSKETCH_TABLE_ENCODER, DEFAULT_SKETCH_MINMAXSKETCH_TABLE_ENCODER)),
+    sparkConf.getInt(FIXED_POINT_BIT_NUM, DEFAULT_FIXED_POINT_BIT_NUM),
+    sparkConf.getBoolean(SKETCH_QUANTILE_GLOBAL_SPLITS, DEFAULT_SKETCH_QUANTILE_GLOBAL_SPLITS),
+    sparkConf.getDouble(SKETCH_QUANTILE_DRIFT_THRESHOLD, DEFAULT_SKETCH_QUANTILE_DRIFT_THRESHOLD),
+    sparkConf.getBoolean(SKETCH_QUANTIZATION_STOCHASTIC, DEFAULT_SKETCH_QUANTIZATION_STOCHASTIC),
+    sparkConf.getDouble(SKETCH_QUANTIZATION_TARGET_ERROR, DEFAULT_SKETCH_QUANTIZATION_TARGET_ERROR),
+    sparkConf.getBoolean(SKETCH_MINMAXSKETCH_BLOCKED, DEFAULT_SKETCH_MINMAXSKETCH_BLOCKED),
+    sparkConf.getDouble(SKETCH_MINMAXSKETCH_CODEBOOK_REUSE_TOLERANCE,
+      DEFAULT_SKETCH_MINMAXSKETCH_CODEBOOK_REUSE_TOLERANCE)
   )
 
 }
@@ -71,7 +98,11 @@ case class MLConf(algo: String, input: String, format: String, workerNum: Int,
                   featureNum: Int, validRatio: Double, epochNum: Int,batchSpRatio: Double,
                   learnRate: Double, learnDecay: Double, l1Reg: Double, l2Reg: Double,
                   compressor: String, quantBinNum: Int, sketchGroupNum: Int,
-                  sketchRowNum: Int, sketchColRatio: Double, fixedPointBitNum: Int) {
+                  sketchRowNum: Int, sketchColRatio: Double, sketchKeyEncoder: BinaryEncoder.EncoderType,
+                  sketchTableEncoder: BinaryEncoder.EncoderType, fixedPointBitNum: Int,
+                  sketchGlobalSplits: Boolean, sketchDriftThreshold: Double,
+                  quantStochastic: Boolean, quantTargetError: Double, sketchBlocked: Boolean,
+                  sketchCodebookReuseTolerance: Double) {
   require(Seq(ML_LOGISTIC_REGRESSION, ML_SUPPORT_VECTOR_MACHINE, ML_LINEAR_REGRESSION).contains(algo),
     throw new SketchMLException(s"Unsupported algorithm: $algo"))
   require(Seq(FORMAT_LIBSVM, FORMAT_CSV, FORMAT_DUMMY).contains(format),
@@ -79,6 +110,10 @@ case class MLConf(algo: String, input: String, format: String, workerNum: Int,
   require(Seq(GRADIENT_COMPRESSOR_SKETCH, GRADIENT_COMPRESSOR_FIXED_POINT, GRADIENT_COMPRESSOR_ZIP,
     GRADIENT_COMPRESSOR_FLOAT, GRADIENT_COMPRESSOR_NONE).contains(compressor),
     throw new SketchMLException(s"Unrecognizable gradient compressor: $compressor"))
+  require(sketchKeyEncoder != BinaryEncoder.EncoderType.RANS,
+    throw new SketchMLException(s"Unsupported key encoder of MinMaxSketch: $sketchKeyEncoder"))
+  require(MinMaxSketch.isTableEncoderSupported(sketchTableEncoder, quantBinNum),
+    throw new SketchMLException(s"Unsupported table encoder of MinMaxSketch: $sketchTableEncoder"))
 
 }
 
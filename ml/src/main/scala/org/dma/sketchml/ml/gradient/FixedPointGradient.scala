@@ -1,10 +1,9 @@
 package org.dma.sketchml.ml.gradient
-import java.util
 
 import breeze.stats.distributions.Bernoulli
 import org.dma.sketchml.ml.gradient.Kind.Kind
 import org.dma.sketchml.sketch.base.SketchMLException
-import org.dma.sketchml.sketch.binary.BinaryUtils
+import org.dma.sketchml.sketch.binary.BitArray
 
 object FixedPointGradient {
   private val bernoulli = new Bernoulli(0.5)
@@ -27,7 +26,7 @@ class FixedPointGradient(d: Int, val numBits: Int) extends Gradient(d) {
   var size: Int = _
   var norm: Double = _
   var indices: Array[Int] = _
-  var bitset: util.BitSet = _
+  var bitset: BitArray = _
 
   def fromDense(dense: DenseDoubleGradient): Unit = fromArray(dense.values)
 
@@ -41,14 +40,14 @@ class FixedPointGradient(d: Int, val numBits: Int) extends Gradient(d) {
     norm = 0.0
     values.foreach(v => norm += v * v)
     norm = Math.sqrt(norm)
-    bitset = new util.BitSet(numBits * size)
+    bitset = new BitArray(numBits * size)
     val max = (1 << (numBits - 1)) - 1
     val sign = 1 << (numBits - 1)
     for (i <- values.indices) {
       val sigma = if (bernoulli.draw()) 1 else 0
       var x = Math.floor(Math.abs(values(i)) / norm * max).toInt + sigma
       if (values(i) < 0) x |= sign
-      BinaryUtils.setBits(bitset, i * numBits, x, numBits)
+      bitset.setBits(i * numBits, x, numBits)
     }
   }
 
@@ -66,7 +65,7 @@ class FixedPointGradient(d: Int, val numBits: Int) extends Gradient(d) {
     val mask = max
     val sign = 1 << (numBits - 1)
     for (i <- 0 until size) {
-      val x = BinaryUtils.getBits(bitset, i * numBits, numBits)
+      val x = bitset.getBits(i * numBits, numBits).toInt
       var v = (x & mask).toDouble / max * norm
       if ((x & sign) != 0) v = -v
       values(i) = v
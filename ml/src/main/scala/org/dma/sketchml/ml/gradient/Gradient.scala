@@ -6,7 +6,8 @@ import org.dma.sketchml.ml.common.Constants
 import org.dma.sketchml.ml.conf.MLConf
 import org.dma.sketchml.ml.gradient.Kind.Kind
 import org.dma.sketchml.ml.util.Maths
-import org.dma.sketchml.sketch.base.SketchMLException
+import org.dma.sketchml.sketch.base.{QuantileSketch, SketchMLException}
+import org.dma.sketchml.sketch.quantization.QuantileQuantizer
 import org.dma.sketchml.sketch.util.Utils
 import org.slf4j.{Logger, LoggerFactory}
 
@@ -15,12 +16,14 @@ object Gradient {
 
   private def logger: Logger = LoggerFactory.getLogger(Gradient.getClass)
 
-  def compress(grad: Gradient, conf: MLConf): Gradient = {
+  def compress(grad: Gradient, conf: MLConf, qSketch: QuantileSketch = null): Gradient = {
     val startTime = System.currentTimeMillis()
     val res = conf.compressor match {
       case Constants.GRADIENT_COMPRESSOR_SKETCH =>
         new SketchGradient(grad, conf.quantBinNum, conf.sketchGroupNum,
-          conf.sketchRowNum, conf.sketchColRatio)
+          conf.sketchRowNum, conf.sketchColRatio, conf.sketchKeyEncoder,
+          conf.sketchTableEncoder, qSketch, conf.sketchDriftThreshold, conf.quantStochastic,
+          conf.quantTargetError, conf.sketchBlocked, conf.sketchCodebookReuseTolerance)
       case Constants.GRADIENT_COMPRESSOR_FIXED_POINT =>
         new FixedPointGradient(grad, conf.fixedPointBitNum)
       case Constants.GRADIENT_COMPRESSOR_ZIP =>
@@ -41,6 +44,30 @@ object Gradient {
     res
   }
 
+  /**
+    * Quantile sketch of gradient values, which can be shipped to and merged
+    * on the driver to find global splits without seeing the raw values
+    */
+  def summarize(grad: Gradient): QuantileSketch = {
+    val qSketch = QuantileSketch.newSketch(QuantileQuantizer.DEFAULT_SKETCH_TYPE, -1L)
+    grad.kind match {
+      case Kind.DenseDouble =>
+        val values = grad.asInstanceOf[DenseDoubleGradient].values
+        qSketch.update(values, 0, values.length)
+      case Kind.SparseDouble =>
+        val values = grad.asInstanceOf[SparseDoubleGradient].values
+        qSketch.update(values, 0, values.length)
+      case Kind.DenseFloat =>
+        val values = grad.asInstanceOf[DenseFloatGradient].values
+        qSketch.update(values, 0, values.length)
+      case Kind.SparseFloat =>
+        val values = grad.asInstanceOf[SparseFloatGradient].values
+        qSketch.update(values, 0, values.length)
+      case _ => throw new SketchMLException(s"Cannot summarize ${grad.kind}")
+    }
+    qSketch
+  }
+
   def sum(dim: Int, grads: Array[Gradient]): Gradient = {
     require(!grads.exists(_.dim != dim))
     val sum = new DenseDoubleGradient(dim)
@@ -1,45 +1,104 @@
 package org.dma.sketchml.ml.gradient
 
 import org.dma.sketchml.ml.gradient.Kind.Kind
-import org.dma.sketchml.sketch.base.SketchMLException
+import org.dma.sketchml.sketch.base.{BinArray, BinaryEncoder, QuantileSketch, SketchMLException}
 import org.dma.sketchml.sketch.quantization.QuantileQuantizer
 import org.dma.sketchml.sketch.sketch.frequency.GroupedMinMaxSketch
 
-class SketchGradient(d: Int, binNum: Int, groupNum: Int, rowNum: Int, colRatio: Double) extends Gradient(d) {
+object SketchGradient {
+  // quantizers kept by each thread across iterations, which reuse splits if gradients drift slowly
+  private val warmQuantizers = new ThreadLocal[QuantileQuantizer]
 
-  def this(grad: Gradient, binNum: Int, groupNum: Int, rowNum: Int, colRatio: Double) {
-    this(grad.dim, binNum, groupNum, rowNum, colRatio)
+  /**
+    * A warm-started quantizer of current thread if `driftThreshold` is positive,
+    * otherwise a new one
+    */
+  def getQuantizer(binNum: Int, driftThreshold: Double): QuantileQuantizer = {
+    if (driftThreshold <= 0.0) {
+      new QuantileQuantizer(binNum)
+    } else {
+      var quantizer = warmQuantizers.get()
+      if (quantizer == null || quantizer.getDriftThreshold != driftThreshold) {
+        quantizer = new QuantileQuantizer(binNum)
+        quantizer.setDriftThreshold(driftThreshold)
+        warmQuantizers.set(quantizer)
+      }
+      quantizer
+    }
+  }
+
+  // last sketch created by each thread, whose table codebooks may be reused by the next one
+  private val warmSketches = new ThreadLocal[GroupedMinMaxSketch]
+
+  /**
+    * Let `sketch` reuse table codebooks of the last sketch of current thread
+    * if `tolerance` is positive, and keep it for the next one
+    */
+  def reuseCodebooks(sketch: GroupedMinMaxSketch, tolerance: Double): Unit = {
+    if (tolerance > 0.0) {
+      sketch.reuseCodebooksOf(warmSketches.get(), tolerance)
+      warmSketches.set(sketch)
+    }
+  }
+}
+
+class SketchGradient(d: Int, binNum: Int, groupNum: Int, rowNum: Int, colRatio: Double,
+                     keyEncoder: BinaryEncoder.EncoderType,
+                     tableEncoder: BinaryEncoder.EncoderType) extends Gradient(d) {
+
+  def this(grad: Gradient, binNum: Int, groupNum: Int, rowNum: Int, colRatio: Double,
+           keyEncoder: BinaryEncoder.EncoderType, tableEncoder: BinaryEncoder.EncoderType,
+           qSketch: QuantileSketch, driftThreshold: Double, stochastic: Boolean, targetError: Double,
+           blocked: Boolean, codebookReuseTolerance: Double) {
+    this(grad.dim, binNum, groupNum, rowNum, colRatio, keyEncoder, tableEncoder)
+    this.blocked = blocked
+    this.codebookReuseTolerance = codebookReuseTolerance
+    val quantizer = SketchGradient.getQuantizer(binNum, driftThreshold)
+    quantizer.setStochastic(stochastic)
+    quantizer.setTargetError(targetError)
+    // each group of the MinMaxSketch needs at least one bin
+    quantizer.setMinBinNum(math.max(QuantileQuantizer.DEFAULT_MIN_BIN_NUM, groupNum))
     grad.kind match {
-      case Kind.DenseDouble => fromDense(grad.asInstanceOf[DenseDoubleGradient])
-      case Kind.SparseDouble => fromSparse(grad.asInstanceOf[SparseDoubleGradient])
+      case Kind.DenseDouble => fromDense(grad.asInstanceOf[DenseDoubleGradient], quantizer, qSketch)
+      case Kind.SparseDouble => fromSparse(grad.asInstanceOf[SparseDoubleGradient], quantizer, qSketch)
+      case Kind.DenseFloat => fromDense(grad.asInstanceOf[DenseFloatGradient], quantizer, qSketch)
+      case Kind.SparseFloat => fromSparse(grad.asInstanceOf[SparseFloatGradient], quantizer, qSketch)
       case _ => throw new SketchMLException(s"Cannot create ${this.kind} from ${grad.kind}")
     }
   }
 
+  def this(grad: Gradient, binNum: Int, groupNum: Int, rowNum: Int, colRatio: Double,
+           keyEncoder: BinaryEncoder.EncoderType, tableEncoder: BinaryEncoder.EncoderType) {
+    this(grad, binNum, groupNum, rowNum, colRatio, keyEncoder, tableEncoder, null, 0.0, false, 0.0, false, 0.0)
+  }
+
   private var nnz: Int = 0
+  private var blocked: Boolean = false
+  private var codebookReuseTolerance: Double = 0.0
   var bucketValues: Array[Double] = _
-  var bins: Array[Int] = _
+  var bins: BinArray = _
   var sketch: GroupedMinMaxSketch = _
 
-  def fromDense(dense: DenseDoubleGradient): Unit = {
+  def fromDense(dense: DenseDoubleGradient, quantizer: QuantileQuantizer = new QuantileQuantizer(binNum),
+                qSketch: QuantileSketch = null): Unit = {
     val values = dense.values
-    val quantizer = new QuantileQuantizer(binNum)
-    quantizer.quantize(values)
-    //quantizer.parallelQuantize(values)
+    quantize(quantizer, values, qSketch)
     bucketValues = quantizer.getValues
     bins = quantizer.getBins
     sketch = null
     nnz = dim
   }
 
-  def fromSparse(sparse: SparseDoubleGradient): Unit = {
+  def fromSparse(sparse: SparseDoubleGradient, quantizer: QuantileQuantizer = new QuantileQuantizer(binNum),
+                 qSketch: QuantileSketch = null): Unit = {
     // 1. quantize into bin indexes
-    val quantizer = new QuantileQuantizer(binNum)
-    quantizer.quantize(sparse.values)
-    //quantizer.parallelQuantize(sparse.values)
+    quantize(quantizer, sparse.values, qSketch)
     bucketValues = quantizer.getValues
     // 2. encode bins and keys
-    sketch = new GroupedMinMaxSketch(groupNum, rowNum, colRatio, quantizer.getBinNum, quantizer.getZeroIdx)
+    sketch = new GroupedMinMaxSketch(groupNum, rowNum, colRatio, quantizer.getBinNum,
+      quantizer.getZeroIdx, keyEncoder, tableEncoder)
+    sketch.setBlocked(blocked)
+    SketchGradient.reuseCodebooks(sketch, codebookReuseTolerance)
     sketch.create(sparse.indices, quantizer.getBins)
     bins = null
     //sketch.parallelCreate(sparse.indices, quantizer.getBins)
@@ -47,6 +106,46 @@ class SketchGradient(d: Int, binNum: Int, groupNum: Int, rowNum: Int, colRatio:
     nnz = sparse.indices.length
   }
 
+  def fromDense(dense: DenseFloatGradient, quantizer: QuantileQuantizer, qSketch: QuantileSketch): Unit = {
+    quantize(quantizer, dense.values, qSketch)
+    bucketValues = quantizer.getValues
+    bins = quantizer.getBins
+    sketch = null
+    nnz = dim
+  }
+
+  def fromSparse(sparse: SparseFloatGradient, quantizer: QuantileQuantizer, qSketch: QuantileSketch): Unit = {
+    quantize(quantizer, sparse.values, qSketch)
+    bucketValues = quantizer.getValues
+    sketch = new GroupedMinMaxSketch(groupNum, rowNum, colRatio, quantizer.getBinNum,
+      quantizer.getZeroIdx, keyEncoder, tableEncoder)
+    sketch.setBlocked(blocked)
+    SketchGradient.reuseCodebooks(sketch, codebookReuseTolerance)
+    sketch.create(sparse.indices, quantizer.getBins)
+    bins = null
+    nnz = sparse.indices.length
+  }
+
+  /**
+    * Quantize with a global quantile sketch if given, otherwise with a local one
+    */
+  private def quantize(quantizer: QuantileQuantizer, values: Array[Double],
+                       qSketch: QuantileSketch): Unit = {
+    if (qSketch != null)
+      quantizer.quantize(values, qSketch)
+    else
+      quantizer.quantize(values)
+    //quantizer.parallelQuantize(values)
+  }
+
+  private def quantize(quantizer: QuantileQuantizer, values: Array[Float],
+                       qSketch: QuantileSketch): Unit = {
+    if (qSketch != null)
+      quantizer.quantize(values, qSketch)
+    else
+      quantizer.quantize(values)
+  }
+
   override def timesBy(x: Double): Unit = {
     for (i <- bucketValues.indices)
       bucketValues(i) *= x
@@ -55,15 +154,16 @@ class SketchGradient(d: Int, binNum: Int, groupNum: Int, rowNum: Int, colRatio:
   override def countNNZ: Int = nnz
 
   override def toDense: DenseDoubleGradient = {
-    val values = bins.map(bin => bucketValues(bin))
+    val values = Array.tabulate(bins.length)(i => bucketValues(bins.get(i)))
     new DenseDoubleGradient(dim, values)
   }
 
   override def toSparse: SparseDoubleGradient = {
+    // decode keys and query their bins in batches
     val kb = sketch.restore()
+    //val kb = sketch.parallelRestore()
     val indices = kb.getLeft
-    val bins = kb.getRight
-    val values = bins.map(bin => bucketValues(bin))
+    val values = Array.tabulate(indices.length)(i => bucketValues(kb.getRight.get(i)))
     new SparseDoubleGradient(dim, indices, values)
   }
 
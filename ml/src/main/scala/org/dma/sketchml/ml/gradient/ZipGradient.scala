@@ -4,7 +4,7 @@ import java.util
 import java.util.concurrent.ExecutionException
 
 import org.dma.sketchml.ml.gradient.Kind.Kind
-import org.dma.sketchml.sketch.base.{Quantizer, SketchMLException}
+import org.dma.sketchml.sketch.base.{Quantizer, SketchMLException, ValueArray}
 import org.dma.sketchml.sketch.util.Sort
 import org.slf4j.{Logger, LoggerFactory}
 
@@ -42,13 +42,15 @@ class ZipGradient(d: Int, binNum: Int) extends Gradient(d) {
 
   override def toDense: DenseDoubleGradient = {
     val bucketValues = quantizer.getValues
-    val values = quantizer.getBins.map(bin => bucketValues(bin))
+    val bins = quantizer.getBins
+    val values = Array.tabulate(bins.length)(i => bucketValues(bins.get(i)))
     new DenseDoubleGradient(dim, values)
   }
 
   override def toSparse: SparseDoubleGradient = {
     val bucketValues = quantizer.getValues
-    val values = quantizer.getBins.map(bin => bucketValues(bin))
+    val bins = quantizer.getBins
+    val values = Array.tabulate(bins.length)(i => bucketValues(bins.get(i)))
     new SparseDoubleGradient(dim, indices, values)
   }
 
@@ -67,11 +69,12 @@ class ZipMLQuantizer(b: Int) extends Quantizer(b) {
 
   def this() = this(Quantizer.DEFAULT_BIN_NUM)
 
-  override def quantize(values: Array[Double]): Unit = {
+  override def quantize(values: ValueArray): Unit = {
     val startTime = System.currentTimeMillis
     n = values.length
     // 1. pre-compute the errors
-    val sortedValues = values.clone
+    val sortedValues = new Array[Double](n)
+    values.copyTo(0, n, sortedValues, 0)
     util.Arrays.sort(sortedValues)
     val r = new Array[Double](n)
     val t = new Array[Double](n)
@@ -130,7 +133,7 @@ class ZipMLQuantizer(b: Int) extends Quantizer(b) {
 
   @throws[InterruptedException]
   @throws[ExecutionException]
-  override def parallelQuantize(values: Array[Double]): Unit = {
+  override def parallelQuantize(values: ValueArray): Unit = {
     logger.warn(s"ZipML quantization should be sequential")
     quantize(values)
   }
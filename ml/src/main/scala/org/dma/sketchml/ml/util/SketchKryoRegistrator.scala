@@ -0,0 +1,43 @@
+package org.dma.sketchml.ml.util
+
+import java.nio.ByteBuffer
+
+import com.esotericsoftware.kryo.io.{Input, Output}
+import com.esotericsoftware.kryo.{Kryo, Serializer}
+import org.apache.spark.serializer.KryoRegistrator
+import org.dma.sketchml.sketch.base.BufferSerializable
+import org.dma.sketchml.sketch.quantization.{QuantileQuantizer, UniformQuantizer}
+import org.dma.sketchml.sketch.sample.{DenseVectorCompressor, SparseVectorCompressor}
+import org.dma.sketchml.sketch.sketch.frequency.{GroupedMinMaxSketch, MinMaxSketch}
+import org.dma.sketchml.sketch.sketch.quantile.{HeapQuantileSketch, KLLQuantileSketch}
+import org.dma.sketchml.sketch.util.Utils
+
+/**
+  * Kryo serializer delegating to the compact format of BufferSerializable
+  */
+class BufferSerializer[T <: BufferSerializable] extends Serializer[T] {
+  override def write(kryo: Kryo, output: Output, obj: T): Unit = {
+    val bytes = Utils.toBytes(obj)
+    output.writeInt(bytes.length, true)
+    output.writeBytes(bytes)
+  }
+
+  override def read(kryo: Kryo, input: Input, clazz: Class[T]): T = {
+    val obj = kryo.newInstance(clazz)
+    obj.readFrom(ByteBuffer.wrap(input.readBytes(input.readInt(true))))
+    obj
+  }
+}
+
+class SketchKryoRegistrator extends KryoRegistrator {
+  override def registerClasses(kryo: Kryo): Unit = {
+    kryo.register(classOf[DenseVectorCompressor], new BufferSerializer[DenseVectorCompressor])
+    kryo.register(classOf[SparseVectorCompressor], new BufferSerializer[SparseVectorCompressor])
+    kryo.register(classOf[GroupedMinMaxSketch], new BufferSerializer[GroupedMinMaxSketch])
+    kryo.register(classOf[MinMaxSketch], new BufferSerializer[MinMaxSketch])
+    kryo.register(classOf[QuantileQuantizer], new BufferSerializer[QuantileQuantizer])
+    kryo.register(classOf[UniformQuantizer], new BufferSerializer[UniformQuantizer])
+    kryo.register(classOf[HeapQuantileSketch])
+    kryo.register(classOf[KLLQuantileSketch])
+  }
+}
@@ -0,0 +1,192 @@
+package org.dma.sketchml.sketch.base;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Array of bin indexes stored in bytes, shorts or ints, whichever is the
+ * narrowest to hold values in [0, maxValue]. Bytes and shorts are unsigned.
+ */
+public abstract class BinArray implements Serializable {
+
+    public static BinArray allocate(int length, int maxValue) {
+        if (maxValue < 0)
+            throw new SketchMLException("Max value of bins should be non-negative: " + maxValue);
+        else if (maxValue <= 0xff)
+            return new ByteBins(new byte[length]);
+        else if (maxValue <= 0xffff)
+            return new ShortBins(new short[length]);
+        else
+            return new IntBins(new int[length]);
+    }
+
+    /**
+     * @return number of bytes of each item in an array allocated for `maxValue`
+     */
+    public static int itemBytes(int maxValue) {
+        return maxValue <= 0xff ? 1 : maxValue <= 0xffff ? 2 : 4;
+    }
+
+    /**
+     * @return an int array viewed as bins without copying, any int value is kept as is
+     */
+    public static BinArray wrap(int[] values) {
+        return new IntBins(values);
+    }
+
+    public static BinArray of(int[] values, int maxValue) {
+        if (maxValue > 0xffff)
+            return wrap(values);
+        BinArray res = allocate(values.length, maxValue);
+        for (int i = 0; i < values.length; i++)
+            res.set(i, values[i]);
+        return res;
+    }
+
+    public abstract int length();
+
+    public abstract int get(int index);
+
+    public abstract void set(int index, int value);
+
+    public abstract void fill(int value);
+
+    /**
+     * dst[i] = get(indexes[i]) for i in [0, size), without a virtual call per item
+     */
+    public abstract void gather(int[] indexes, int size, int[] dst);
+
+    /**
+     * @return a copy truncated or padded with zeros to `newLength`, in the same width
+     */
+    public abstract BinArray copyOf(int newLength);
+
+    public int[] toIntArray() {
+        int[] res = new int[length()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = get(i);
+        return res;
+    }
+
+    private static final class ByteBins extends BinArray {
+        private final byte[] bins;
+
+        ByteBins(byte[] bins) {
+            this.bins = bins;
+        }
+
+        @Override
+        public int length() {
+            return bins.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return bins[index] & 0xff;
+        }
+
+        @Override
+        public void set(int index, int value) {
+            bins[index] = (byte) value;
+        }
+
+        @Override
+        public void fill(int value) {
+            Arrays.fill(bins, (byte) value);
+        }
+
+        @Override
+        public void gather(int[] indexes, int size, int[] dst) {
+            for (int i = 0; i < size; i++)
+                dst[i] = bins[indexes[i]] & 0xff;
+        }
+
+        @Override
+        public BinArray copyOf(int newLength) {
+            return new ByteBins(Arrays.copyOf(bins, newLength));
+        }
+    }
+
+    private static final class ShortBins extends BinArray {
+        private final short[] bins;
+
+        ShortBins(short[] bins) {
+            this.bins = bins;
+        }
+
+        @Override
+        public int length() {
+            return bins.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return bins[index] & 0xffff;
+        }
+
+        @Override
+        public void set(int index, int value) {
+            bins[index] = (short) value;
+        }
+
+        @Override
+        public void fill(int value) {
+            Arrays.fill(bins, (short) value);
+        }
+
+        @Override
+        public void gather(int[] indexes, int size, int[] dst) {
+            for (int i = 0; i < size; i++)
+                dst[i] = bins[indexes[i]] & 0xffff;
+        }
+
+        @Override
+        public BinArray copyOf(int newLength) {
+            return new ShortBins(Arrays.copyOf(bins, newLength));
+        }
+    }
+
+    private static final class IntBins extends BinArray {
+        private final int[] bins;
+
+        IntBins(int[] bins) {
+            this.bins = bins;
+        }
+
+        @Override
+        public int length() {
+            return bins.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return bins[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            bins[index] = value;
+        }
+
+        @Override
+        public void fill(int value) {
+            Arrays.fill(bins, value);
+        }
+
+        @Override
+        public void gather(int[] indexes, int size, int[] dst) {
+            for (int i = 0; i < size; i++)
+                dst[i] = bins[indexes[i]];
+        }
+
+        @Override
+        public BinArray copyOf(int newLength) {
+            return new IntBins(Arrays.copyOf(bins, newLength));
+        }
+
+        @Override
+        public int[] toIntArray() {
+            return bins.clone();
+        }
+    }
+}
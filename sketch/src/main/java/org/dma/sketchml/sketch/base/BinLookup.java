@@ -0,0 +1,9 @@
+package org.dma.sketchml.sketch.base;
+
+/**
+ * Engine of `Quantizer.indexOf` built from sorted splits, which returns
+ * the number of splits no larger than `x`
+ */
+public interface BinLookup {
+    int indexOf(double x);
+}
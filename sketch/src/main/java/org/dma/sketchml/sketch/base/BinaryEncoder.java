@@ -1,11 +1,165 @@
 package org.dma.sketchml.sketch.base;
 
+import org.dma.sketchml.sketch.binary.BitPackingEncoder;
+import org.dma.sketchml.sketch.binary.CanonicalHuffmanEncoder;
+import org.dma.sketchml.sketch.binary.DeltaAdaptiveEncoder;
+import org.dma.sketchml.sketch.binary.DeltaBinaryEncoder;
+import org.dma.sketchml.sketch.binary.EliasFanoEncoder;
+import org.dma.sketchml.sketch.binary.HuffmanEncoder;
+import org.dma.sketchml.sketch.binary.PForDeltaEncoder;
+import org.dma.sketchml.sketch.binary.RANSEncoder;
+
 import java.io.Serializable;
-import java.util.stream.IntStream;
+import java.nio.ByteBuffer;
 
-public interface BinaryEncoder extends Serializable {
+/**
+ * Encoders of integer arrays. `writeTo`, `readFrom` and `serializedSize` of
+ * BufferSerializable refer to the state of an encoder after `encode`.
+ */
+public interface BinaryEncoder extends Serializable, BufferSerializable {
     void encode(int[] values);
 
     int[] decode();
 
+    /**
+     * Encode bins, encoders not overriding it encode a copy in an int array
+     *
+     * @param values
+     */
+    default void encode(BinArray values) {
+        encode(values.toIntArray());
+    }
+
+    /**
+     * Decode into bins in [0, maxValue], encoders not overriding it decode through an int array
+     *
+     * @param maxValue
+     * @return
+     */
+    default BinArray decodeBins(int maxValue) {
+        return BinArray.of(decode(), maxValue);
+    }
+
+    /**
+     * Let the next `encode` reuse the codebook of `last`, e.g., the encoder of the
+     * same table in the last iteration, as long as it covers all values and the
+     * histogram has changed by no more than `tolerance` in total variation distance.
+     * Encoders without a codebook ignore it.
+     *
+     * @param last
+     * @param tolerance
+     */
+    default void reuseCodebookOf(BinaryEncoder last, double tolerance) {
+    }
+
+    EncoderType encoderType();
+
+    /**
+     * Encode `src[from, to)` into `dst` from its current position, without
+     * modifying the state of this encoder. Works with heap and direct buffers,
+     * throws BufferOverflowException if `dst` does not have enough space.
+     *
+     * @param src
+     * @param from
+     * @param to
+     * @param dst
+     */
+    void encodeTo(int[] src, int from, int to, ByteBuffer dst);
+
+    /**
+     * Decode values written by `encodeTo` from the current position of `src`
+     * into `dst` starting from `offset`, `src` is moved to the end of them
+     *
+     * @param src
+     * @param dst
+     * @param offset
+     * @return number of decoded values
+     */
+    int decodeInto(ByteBuffer src, int[] dst, int offset);
+
+    /**
+     * @return number of values encoded at the current position of `src`,
+     * the position is not changed
+     */
+    static int decodedLength(ByteBuffer src) {
+        return src.getInt(src.position());
+    }
+
+    /**
+     * Write the type of `encoder` followed by its state
+     *
+     * @param encoder
+     * @param dst
+     */
+    static void writeEncoder(BinaryEncoder encoder, ByteBuffer dst) {
+        dst.put(encoder.encoderType().id());
+        encoder.writeTo(dst);
+    }
+
+    static BinaryEncoder readEncoder(ByteBuffer src) {
+        BinaryEncoder encoder = newEncoder(EncoderType.fromId(src.get()));
+        encoder.readFrom(src);
+        return encoder;
+    }
+
+    static int encoderSize(BinaryEncoder encoder) {
+        return 1 + encoder.serializedSize();
+    }
+
+    static BinaryEncoder newEncoder(EncoderType type) {
+        switch (type) {
+            case DELTA_BINARY:
+                return new DeltaBinaryEncoder();
+            case DELTA_ADAPTIVE:
+                return new DeltaAdaptiveEncoder();
+            case PFOR_DELTA:
+                return new PForDeltaEncoder();
+            case ELIAS_FANO:
+                return new EliasFanoEncoder();
+            case HUFFMAN:
+                return new HuffmanEncoder();
+            case CANONICAL_HUFFMAN:
+                return new CanonicalHuffmanEncoder();
+            case RANS:
+                return new RANSEncoder();
+            case BIT_PACKING:
+                return new BitPackingEncoder();
+            default:
+                throw new SketchMLException(
+                        "Unrecognizable encoder type: " + type);
+        }
+    }
+
+    // ordinals are written by `writeEncoder`, new types should be appended
+    enum EncoderType {
+        DELTA_BINARY("DELTA_BINARY"),
+        DELTA_ADAPTIVE("DELTA_ADAPTIVE"),
+        PFOR_DELTA("PFOR_DELTA"),
+        ELIAS_FANO("ELIAS_FANO"),
+        HUFFMAN("HUFFMAN"),
+        CANONICAL_HUFFMAN("CANONICAL_HUFFMAN"),
+        RANS("RANS"),
+        BIT_PACKING("BIT_PACKING");
+
+        private final String type;
+
+        EncoderType(String type) {
+            this.type = type;
+        }
+
+        public byte id() {
+            return (byte) ordinal();
+        }
+
+        public static EncoderType fromId(int id) {
+            if (id < 0 || id >= values().length)
+                throw new SketchMLException("Unrecognizable encoder id: " + id);
+            return values()[id];
+        }
+
+        @Override
+        public String toString() {
+            return type;
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package org.dma.sketchml.sketch.base;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary format written into and read from a ByteBuffer, which
+ * backs Java serialization and Kryo and can be used for direct transfer.
+ */
+public interface BufferSerializable {
+    /**
+     * Write into `dst` from its current position, throws
+     * BufferOverflowException if there are less than `serializedSize()` bytes left
+     *
+     * @param dst
+     */
+    void writeTo(ByteBuffer dst);
+
+    /**
+     * Read what is written by `writeTo` from the current position of `src`,
+     * `src` is moved to the end of it
+     *
+     * @param src
+     */
+    void readFrom(ByteBuffer src);
+
+    /**
+     * @return number of bytes written by `writeTo`
+     */
+    int serializedSize();
+}
@@ -1,7 +1,13 @@
 package org.dma.sketchml.sketch.base;
 
+import org.dma.sketchml.sketch.common.Constants;
+import org.dma.sketchml.sketch.sketch.quantile.HeapQuantileSketch;
+import org.dma.sketchml.sketch.sketch.quantile.KLLQuantileSketch;
 
 import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public abstract class QuantileSketch implements Serializable {
     protected long n; // total number of data items appeared
@@ -23,6 +29,22 @@ public abstract class QuantileSketch implements Serializable {
 
     public abstract void update(double value);
 
+    /**
+     * Update with values[from, to) in doubles or floats
+     */
+    public void update(ValueArray values, int from, int to) {
+        for (int i = from; i < to; i++)
+            update(values.get(i));
+    }
+
+    public void update(double[] values, int from, int to) {
+        update(ValueArray.of(values), from, to);
+    }
+
+    public void update(float[] values, int from, int to) {
+        update(ValueArray.of(values), from, to);
+    }
+
     public abstract void merge(QuantileSketch other);
 
     public abstract double getQuantile(double fraction);
@@ -50,4 +72,65 @@ public abstract class QuantileSketch implements Serializable {
     public double getMaxValue() {
         return maxValue;
     }
+
+    /**
+     * Merge sketches pairwise in a binary tree, the result is stored in `sketches[0]`
+     */
+    public static QuantileSketch treeMerge(QuantileSketch[] sketches) {
+        for (int stride = 1; stride < sketches.length; stride <<= 1) {
+            for (int i = 0; i + stride < sketches.length; i += stride << 1)
+                sketches[i].merge(sketches[i + stride]);
+        }
+        return sketches[0];
+    }
+
+    /**
+     * Merge sketches pairwise in a binary tree, merges of the same round are
+     * executed in parallel, the result is stored in `sketches[0]`
+     */
+    public static QuantileSketch parallelTreeMerge(QuantileSketch[] sketches)
+            throws InterruptedException, ExecutionException {
+        ExecutorService threadPool = Constants.Parallel.getThreadPool();
+        for (int stride = 1; stride < sketches.length; stride <<= 1) {
+            int step = stride;
+            int pairNum = (sketches.length - stride + (stride << 1) - 1) / (stride << 1);
+            Future<?>[] futures = new Future[pairNum];
+            for (int pairId = 0; pairId < pairNum; pairId++) {
+                int left = pairId * (step << 1);
+                futures[pairId] = threadPool.submit(
+                        () -> sketches[left].merge(sketches[left + step]));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        }
+        return sketches[0];
+    }
+
+    public static QuantileSketch newSketch(QuantileSketch.SketchType type, long estimateN) {
+        switch (type) {
+            case HEAP:
+                return new HeapQuantileSketch(estimateN);
+            case KLL:
+                return new KLLQuantileSketch(estimateN);
+            default:
+                throw new SketchMLException(
+                        "Unrecognizable quantile sketch type: " + type);
+        }
+    }
+
+    public enum SketchType {
+        HEAP("HEAP"),
+        KLL("KLL");
+
+        private final String type;
+
+        SketchType(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public String toString() {
+            return type;
+        }
+    }
 }
@@ -1,8 +1,13 @@
 package org.dma.sketchml.sketch.base;
 
+import org.dma.sketchml.sketch.binary.BitPackingEncoder;
 import org.dma.sketchml.sketch.common.Constants;
+import org.dma.sketchml.sketch.quantization.BlockQuantizer;
+import org.dma.sketchml.sketch.quantization.EytzingerLookup;
 import org.dma.sketchml.sketch.quantization.QuantileQuantizer;
 import org.dma.sketchml.sketch.quantization.UniformQuantizer;
+import org.dma.sketchml.sketch.util.Utils;
+import org.dma.sketchml.sketch.util.XorShiftRandom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,12 +15,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
-public abstract class Quantizer implements Serializable {
+public abstract class Quantizer implements Serializable, BufferSerializable {
     public static Logger LOG = LoggerFactory.getLogger(Quantizer.class);
 
     protected int binNum;
@@ -24,18 +30,51 @@ public abstract class Quantizer implements Serializable {
     protected int zeroIdx;
     protected double min;
     protected double max;
+    // whether values are rounded to one of the two neighboring bin values at random,
+    // with probabilities that keep the expectation unbiased
+    protected boolean stochastic;
 
-    protected int[] bins;
+    protected BinArray bins;
+    // encoder of bins when serialized, null for bit-packing with runs of `zeroIdx`
+    protected BinaryEncoder.EncoderType binEncoderType;
+    // encoded bins, reset when bins are changed
+    protected transient BinaryEncoder binEncoder;
+    // engine of `indexOf`, reset when splits are changed
+    protected transient BinLookup lookup;
     public static final int DEFAULT_BIN_NUM = 256;
 
     public Quantizer(int binNum) {
         this.binNum = binNum;
     }
 
-    public abstract void quantize(double[] values);
+    /**
+     * Quantize values in doubles or floats, floats are widened when they are read
+     */
+    public abstract void quantize(ValueArray values);
 
-    public abstract void parallelQuantize(double[] values) throws InterruptedException, ExecutionException;
+    public abstract void parallelQuantize(ValueArray values) throws InterruptedException, ExecutionException;
 
+    public void quantize(double[] values) {
+        quantize(ValueArray.of(values));
+    }
+
+    public void quantize(float[] values) {
+        quantize(ValueArray.of(values));
+    }
+
+    public void parallelQuantize(double[] values) throws InterruptedException, ExecutionException {
+        parallelQuantize(ValueArray.of(values));
+    }
+
+    public void parallelQuantize(float[] values) throws InterruptedException, ExecutionException {
+        parallelQuantize(ValueArray.of(values));
+    }
+
+    /**
+     * Value of each bin is the midpoint of its edges. With stochastic rounding,
+     * the first and the last are `min` and `max` so that all values lie between
+     * two bin values, and zero is kept exact if it is in a middle bin.
+     */
     public double[] getValues() {
         double[] res = new double[binNum];
         int splitNum = binNum - 1;
@@ -43,10 +82,61 @@ public abstract class Quantizer implements Serializable {
         for (int i = 1; i < splitNum; i++)
             res[i] = 0.5 * (splits[i - 1] + splits[i]);
         res[splitNum] = 0.5 * (splits[splitNum - 1] + max);
+        if (stochastic) {
+            res[0] = min;
+            res[splitNum] = max;
+            int zeroBin = indexOf(0.0);
+            if (zeroBin > 0 && zeroBin < splitNum)
+                res[zeroBin] = 0.0;
+        }
+        return res;
+    }
+
+    /**
+     * @return the quantized value of each item
+     */
+    public double[] dequantize() {
+        double[] values = getValues();
+        double[] res = new double[n];
+        for (int i = 0; i < n; i++)
+            res[i] = values[bins.get(i)];
         return res;
     }
 
     public int indexOf(double x) {
+        if (lookup == null)
+            lookup = newLookup();
+        return x == x ? lookup.indexOf(x) : binarySearch(x);
+    }
+
+    /**
+     * Build the engine of `indexOf` from current splits, which is a branch-free
+     * search over splits in Eytzinger layout by default
+     */
+    protected BinLookup newLookup() {
+        for (int i = 1; i < splits.length; i++) {
+            if (!(splits[i - 1] <= splits[i]))
+                return this::binarySearch;
+        }
+        return new EytzingerLookup(splits);
+    }
+
+    /**
+     * Round `x` to the bin of the lower or the upper one of its neighboring bin
+     * values, with probability proportional to the distance to the other one
+     */
+    protected int stochasticIndexOf(double x, double[] values, XorShiftRandom random) {
+        int bin = indexOf(x);
+        int lower = x < values[bin] ? bin - 1 : bin;
+        if (lower < 0)
+            return 0;
+        else if (lower + 1 >= binNum)
+            return binNum - 1;
+        double gap = values[lower + 1] - values[lower];
+        return random.nextDouble() * gap < x - values[lower] ? lower + 1 : lower;
+    }
+
+    protected int binarySearch(double x) {
         if (x < splits[0]) {
             return 0;
         } else if (x >= splits[binNum - 2]) {
@@ -84,29 +174,47 @@ public abstract class Quantizer implements Serializable {
         }
     }
 
-    protected void quantizeToBins(double[] values) {
-        int size = values.length;
-        bins = new int[size];
-        for (int i = 0; i < size; i++)
-            bins[i] = indexOf(values[i]);
+    protected void quantizeToBins(ValueArray values) {
+        int size = values.length();
+        bins = BinArray.allocate(size, binNum - 1);
+        binEncoder = null;
+        lookup = newLookup();
+        if (stochastic) {
+            double[] binValues = getValues();
+            XorShiftRandom random = new XorShiftRandom();
+            for (int i = 0; i < size; i++)
+                bins.set(i, stochasticIndexOf(values.get(i), binValues, random));
+        } else {
+            for (int i = 0; i < size; i++)
+                bins.set(i, indexOf(values.get(i)));
+        }
     }
 
-    protected void parallelQuantizeToBins(double[] values) throws InterruptedException, ExecutionException {
-        int size = values.length;
+    protected void parallelQuantizeToBins(ValueArray values) throws InterruptedException, ExecutionException {
+        int size = values.length();
         int threadNum = Constants.Parallel.getParallelism();
         ExecutorService threadPool = Constants.Parallel.getThreadPool();
         Future<Void>[] futures = new Future[threadNum];
-        bins = new int[size];
+        bins = BinArray.allocate(size, binNum - 1);
+        binEncoder = null;
+        lookup = newLookup();
+        double[] binValues = stochastic ? getValues() : null;
         for (int i = 0; i < threadNum; i++) {
             int threadId = i;
             futures[threadId] = threadPool.submit(new Callable<Void>() {
                 @Override
                 public Void call() throws Exception {
-                    int elementPerThread = n / threadNum;
+                    int elementPerThread = size / threadNum;
                     int from = threadId * elementPerThread;
                     int to = threadId + 1 == threadNum ? size : from + elementPerThread;
-                    for (int itemId = from; itemId < to; itemId++)
-                        bins[itemId] = indexOf(values[itemId]);
+                    if (stochastic) {
+                        XorShiftRandom random = new XorShiftRandom();
+                        for (int itemId = from; itemId < to; itemId++)
+                            bins.set(itemId, stochasticIndexOf(values.get(itemId), binValues, random));
+                    } else {
+                        for (int itemId = from; itemId < to; itemId++)
+                            bins.set(itemId, indexOf(values.get(itemId)));
+                    }
                     return null;
                 }
             });
@@ -121,6 +229,7 @@ public abstract class Quantizer implements Serializable {
         max *= x;
         for (int i = 0; i < splits.length; i++)
             splits[i] *= x;
+        lookup = null;
     }
 
     public static Quantizer newQuantizer(Quantizer.QuantizationType type, int binNum) {
@@ -129,6 +238,8 @@ public abstract class Quantizer implements Serializable {
                 return new QuantileQuantizer(binNum);
             case UNIFORM:
                 return new UniformQuantizer(binNum);
+            case BLOCK:
+                return new BlockQuantizer(binNum);
             default:
                 throw new SketchMLException(
                         "Unrecognizable quantization type: " + type);
@@ -137,7 +248,8 @@ public abstract class Quantizer implements Serializable {
 
     public enum QuantizationType {
         UNIFORM("UNIFORM"),
-        QUANTILE("QUANTILE");
+        QUANTILE("QUANTILE"),
+        BLOCK("BLOCK");
 
         private final String type;
 
@@ -145,6 +257,16 @@ public abstract class Quantizer implements Serializable {
             this.type = type;
         }
 
+        public byte id() {
+            return (byte) ordinal();
+        }
+
+        public static QuantizationType fromId(int id) {
+            if (id < 0 || id >= values().length)
+                throw new SketchMLException("Unrecognizable quantization id: " + id);
+            return values()[id];
+        }
+
         @Override
         public String toString() {
             return type;
@@ -165,7 +287,7 @@ public abstract class Quantizer implements Serializable {
         return splits;
     }
 
-    public int[] getBins() {
+    public BinArray getBins() {
         return bins;
     }
 
@@ -181,48 +303,77 @@ public abstract class Quantizer implements Serializable {
         return min;
     }
 
-    private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.writeInt(binNum);
-        oos.writeInt(n);
-        for (double split : splits)
-            oos.writeDouble(split);
-        oos.writeInt(zeroIdx);
-        oos.writeDouble(min);
-        oos.writeDouble(max);
-        oos.writeInt(bins.length);
-        if (binNum <= 256) {
-            for (int bin : bins)
-                oos.writeByte(bin + Byte.MIN_VALUE);
-        } else if (binNum <= 65536) {
-            for (int bin : bins)
-                oos.writeShort(bin + Short.MIN_VALUE);
-        } else {
-            for (int bin : bins)
-                oos.writeInt(bin);
+    public boolean isStochastic() {
+        return stochastic;
+    }
+
+    public void setStochastic(boolean stochastic) {
+        this.stochastic = stochastic;
+    }
+
+    public BinaryEncoder.EncoderType getBinEncoderType() {
+        return binEncoderType;
+    }
+
+    public void setBinEncoderType(BinaryEncoder.EncoderType binEncoderType) {
+        this.binEncoderType = binEncoderType;
+        this.binEncoder = null;
+    }
+
+    protected BinaryEncoder getBinEncoder() {
+        if (binEncoder == null) {
+            binEncoder = binEncoderType == null || binEncoderType == BinaryEncoder.EncoderType.BIT_PACKING
+                    ? new BitPackingEncoder(zeroIdx) : BinaryEncoder.newEncoder(binEncoderType);
+            binEncoder.encode(bins);
         }
+        return binEncoder;
     }
 
-    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
-        binNum = ois.readInt();
-        n = ois.readInt();
+    /**
+     * Layout: [binNum][n][splits][zeroIdx][min][max][whether stochastic][encoded bins]
+     */
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(binNum);
+        dst.putInt(n);
+        for (double split : splits)
+            dst.putDouble(split);
+        dst.putInt(zeroIdx);
+        dst.putDouble(min);
+        dst.putDouble(max);
+        dst.put((byte) (stochastic ? 1 : 0));
+        BinaryEncoder.writeEncoder(getBinEncoder(), dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        binNum = src.getInt();
+        n = src.getInt();
         int splitNum = binNum - 1;
         splits = new double[splitNum];
         for (int i = 0; i < splitNum; i++)
-            splits[i] = ois.readDouble();
-        zeroIdx = ois.readInt();
-        min = ois.readDouble();
-        max = ois.readDouble();
-        bins = new int[ois.readInt()];
-        if (binNum <= 256) {
-            for (int i = 0; i < bins.length; i++)
-                bins[i] = ((int) ois.readByte()) - Byte.MIN_VALUE;
-        } else if (binNum <= 65536) {
-            for (int i = 0; i < bins.length; i++)
-                bins[i] = ((int) ois.readShort()) - Short.MIN_VALUE;
-        } else {
-            for (int i = 0; i < bins.length; i++)
-                bins[i] = ois.readInt();
-        }
+            splits[i] = src.getDouble();
+        zeroIdx = src.getInt();
+        min = src.getDouble();
+        max = src.getDouble();
+        stochastic = src.get() != 0;
+        lookup = null;
+        binEncoder = BinaryEncoder.readEncoder(src);
+        binEncoderType = binEncoder.encoderType();
+        bins = binEncoder.decodeBins(binNum - 1);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 29 + 8 * splits.length + BinaryEncoder.encoderSize(getBinEncoder());
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        Utils.writeBuffer(this, oos);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        Utils.readBuffer(this, ois);
     }
 
 }
@@ -0,0 +1,26 @@
+package org.dma.sketchml.sketch.base;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+/**
+ * Encoder of sorted integers which can be accessed
+ * without decoding the whole array
+ */
+public interface RandomAccessEncoder extends BinaryEncoder {
+    int size();
+
+    /**
+     * @param index
+     * @return the index-th value
+     */
+    int get(int index);
+
+    /**
+     * @param value
+     * @return index of the first value that is no less than `value`,
+     * or `size()` if there is no such value
+     */
+    int nextGEQ(int value);
+
+    IntIterator iterator();
+}
@@ -0,0 +1,93 @@
+package org.dma.sketchml.sketch.base;
+
+/**
+ * Read-only view of values stored in doubles or floats, so that algorithms over
+ * values are implemented once for both. Floats are widened when they are read.
+ */
+public abstract class ValueArray {
+
+    public static ValueArray of(double[] values) {
+        return new DoubleValues(values);
+    }
+
+    public static ValueArray of(float[] values) {
+        return new FloatValues(values);
+    }
+
+    public abstract int length();
+
+    public abstract double get(int index);
+
+    /**
+     * dst[offset + i - from] = get(i) for i in [from, to)
+     */
+    public abstract void copyTo(int from, int to, double[] dst, int offset);
+
+    /**
+     * @return an array of `length` zeros in the same width, where get(i) is put at keys[i]
+     */
+    public abstract ValueArray scatter(int[] keys, int length);
+
+    private static final class DoubleValues extends ValueArray {
+        private final double[] values;
+
+        DoubleValues(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int length() {
+            return values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void copyTo(int from, int to, double[] dst, int offset) {
+            System.arraycopy(values, from, dst, offset, to - from);
+        }
+
+        @Override
+        public ValueArray scatter(int[] keys, int length) {
+            double[] res = new double[length];
+            for (int i = 0; i < keys.length; i++)
+                res[keys[i]] = values[i];
+            return new DoubleValues(res);
+        }
+    }
+
+    private static final class FloatValues extends ValueArray {
+        private final float[] values;
+
+        FloatValues(float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int length() {
+            return values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void copyTo(int from, int to, double[] dst, int offset) {
+            for (int i = from; i < to; i++)
+                dst[offset + i - from] = values[i];
+        }
+
+        @Override
+        public ValueArray scatter(int[] keys, int length) {
+            float[] res = new float[length];
+            for (int i = 0; i < keys.length; i++)
+                res[keys[i]] = values[i];
+            return new FloatValues(res);
+        }
+    }
+}
@@ -4,16 +4,55 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutionException;
 
-public interface VectorCompressor extends Serializable {
-    void compressDense(double[] values);
+public interface VectorCompressor extends Serializable, BufferSerializable {
+    // version of the compact format, written ahead of each compressor
+    byte SERIALIZATION_VERSION = 6;
 
-    void compressSparse(int[] keys, double[] values);
+    /**
+     * Compress values in doubles or floats
+     */
+    void compressDense(ValueArray values);
 
-    void parallelCompressDense(double[] values) throws InterruptedException, ExecutionException;
+    void compressSparse(int[] keys, ValueArray values);
 
-    void parallelCompressSparse(int[] keys, double[] values) throws InterruptedException, ExecutionException;
+    void parallelCompressDense(ValueArray values) throws InterruptedException, ExecutionException;
+
+    void parallelCompressSparse(int[] keys, ValueArray values) throws InterruptedException, ExecutionException;
+
+    default void compressDense(double[] values) {
+        compressDense(ValueArray.of(values));
+    }
+
+    default void compressSparse(int[] keys, double[] values) {
+        compressSparse(keys, ValueArray.of(values));
+    }
+
+    default void parallelCompressDense(double[] values) throws InterruptedException, ExecutionException {
+        parallelCompressDense(ValueArray.of(values));
+    }
+
+    default void parallelCompressSparse(int[] keys, double[] values) throws InterruptedException, ExecutionException {
+        parallelCompressSparse(keys, ValueArray.of(values));
+    }
+
+    default void compressDense(float[] values) {
+        compressDense(ValueArray.of(values));
+    }
+
+    default void compressSparse(int[] keys, float[] values) {
+        compressSparse(keys, ValueArray.of(values));
+    }
+
+    default void parallelCompressDense(float[] values) throws InterruptedException, ExecutionException {
+        parallelCompressDense(ValueArray.of(values));
+    }
+
+    default void parallelCompressSparse(int[] keys, float[] values) throws InterruptedException, ExecutionException {
+        parallelCompressSparse(keys, ValueArray.of(values));
+    }
 
     double[] decompressDense();
 
@@ -24,4 +63,17 @@ public interface VectorCompressor extends Serializable {
     double size();
 
     int memoryBytes() throws IOException;
+
+    /**
+     * Read the version byte and throw if it is not supported
+     *
+     * @param src
+     */
+    static void checkVersion(ByteBuffer src) {
+        int version = src.get();
+        if (version != SERIALIZATION_VERSION)
+            throw new SketchMLException(String.format(
+                    "Unsupported serialization version: %d, expected %d",
+                    version, SERIALIZATION_VERSION));
+    }
 }
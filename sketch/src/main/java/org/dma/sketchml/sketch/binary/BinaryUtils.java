@@ -52,4 +52,11 @@ public class BinaryUtils {
             sb.append(bitset.get(i) ? 1 : 0);
         return sb.toString();
     }
+
+    public static String bits2String(BitArray bits, int from, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < from + length; i++)
+            sb.append(bits.get(i) ? 1 : 0);
+        return sb.toString();
+    }
 }
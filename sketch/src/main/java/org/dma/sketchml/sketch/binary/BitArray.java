@@ -0,0 +1,141 @@
+package org.dma.sketchml.sketch.binary;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable bit array backed by `long` words, which packs and unpacks
+ * up to 64 bits per call with shifts and masks.
+ *
+ * The layout is the same as a `java.util.BitSet` filled by the per-bit
+ * `BinaryUtils.setBits`: bit `i` lives in word `i >> 6` at position `i & 63`,
+ * and a field of `numBits` bits is stored from its most significant bit.
+ * Hence `toLongArray()` is identical to `BitSet.toLongArray()`.
+ */
+public class BitArray implements Serializable {
+    private long[] words;
+
+    public BitArray(int numBits) {
+        this.words = new long[Math.max((numBits + 63) >>> 6, 1)];
+    }
+
+    public BitArray() {
+        this(64);
+    }
+
+    private BitArray(long[] words) {
+        this.words = words;
+    }
+
+    public static BitArray valueOf(long[] words) {
+        return new BitArray(words.length == 0 ? new long[1] : words);
+    }
+
+    private void ensureCapacity(int wordsRequired) {
+        if (words.length < wordsRequired)
+            words = Arrays.copyOf(words, Math.max(words.length * 2, wordsRequired));
+    }
+
+    public void set(int index) {
+        int wordIdx = index >>> 6;
+        ensureCapacity(wordIdx + 1);
+        words[wordIdx] |= 1L << index;
+    }
+
+    public boolean get(int index) {
+        int wordIdx = index >>> 6;
+        return wordIdx < words.length && (words[wordIdx] & (1L << index)) != 0;
+    }
+
+    /**
+     * Write the lowest `numBits` bits of `value` to [offset, offset + numBits)
+     *
+     * @param offset
+     * @param value
+     * @param numBits should be in range [0, 64]
+     */
+    public void setBits(int offset, long value, int numBits) {
+        if (numBits == 0) return;
+        // reverse so that the most significant bit comes first
+        long rev = Long.reverse(value) >>> (64 - numBits);
+        int wordIdx = offset >>> 6;
+        int bitIdx = offset & 63;
+        if (bitIdx + numBits > 64) {
+            ensureCapacity(wordIdx + 2);
+            words[wordIdx] |= rev << bitIdx;
+            words[wordIdx + 1] |= rev >>> (64 - bitIdx);
+        } else {
+            ensureCapacity(wordIdx + 1);
+            words[wordIdx] |= rev << bitIdx;
+        }
+    }
+
+    public void setBytes(int offset, long value, int numBytes) {
+        setBits(offset, value, numBytes * 8);
+    }
+
+    /**
+     * Read `numBits` bits from [offset, offset + numBits)
+     *
+     * @param offset
+     * @param numBits should be in range [0, 64]
+     * @return
+     */
+    public long getBits(int offset, int numBits) {
+        if (numBits == 0) return 0L;
+        int wordIdx = offset >>> 6;
+        int bitIdx = offset & 63;
+        long raw = word(wordIdx) >>> bitIdx;
+        if (bitIdx + numBits > 64)
+            raw |= word(wordIdx + 1) << (64 - bitIdx);
+        return Long.reverse(raw) >>> (64 - numBits);
+    }
+
+    public long getBytes(int offset, int numBytes) {
+        return getBits(offset, numBytes * 8);
+    }
+
+    private long word(int wordIdx) {
+        return wordIdx < words.length ? words[wordIdx] : 0L;
+    }
+
+    /**
+     * Words up to the last non-zero one, the same as `BitSet.toLongArray()`
+     *
+     * @return
+     */
+    public long[] toLongArray() {
+        return Arrays.copyOf(words, numWords());
+    }
+
+    private int numWords() {
+        int n = words.length;
+        while (n > 0 && words[n - 1] == 0L) n--;
+        return n;
+    }
+
+    /**
+     * Write the number of words and words of `toLongArray()`, `bits` can be null
+     *
+     * @param bits
+     * @param dst
+     */
+    public static void writeTo(BitArray bits, ByteBuffer dst) {
+        int n = bits == null ? 0 : bits.numWords();
+        dst.putInt(n);
+        for (int i = 0; i < n; i++)
+            dst.putLong(bits.words[i]);
+    }
+
+    public static BitArray readFrom(ByteBuffer src) {
+        long[] words = new long[src.getInt()];
+        for (int i = 0; i < words.length; i++)
+            words[i] = src.getLong();
+        return valueOf(words);
+    }
+
+    public static int serializedSize(BitArray bits) {
+        return 4 + (bits == null ? 0 : bits.numWords() * 8);
+    }
+}
@@ -0,0 +1,192 @@
+package org.dma.sketchml.sketch.binary;
+
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs each value into the same number of bits, which is the bit length
+ * of the maximal value, e.g., 4 bits for bin indexes in [0, 16).
+ *
+ * If `runValue` is given, a run of it is written once followed by the length
+ * of the run in Elias-gamma code, which is used when it saves space.
+ * It suits bins of mostly-zero dense vectors, where `runValue` is `zeroIdx`.
+ */
+public class BitPackingEncoder implements BinaryEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(BitPackingEncoder.class);
+
+    private int runValue;   // negative if runs are not encoded
+    private int size;
+    private byte[] data;    // values written by `encodeTo`
+
+    public BitPackingEncoder(int runValue) {
+        this.runValue = runValue;
+    }
+
+    public BitPackingEncoder() {
+        this(-1);
+    }
+
+    @Override
+    public void encode(int[] values) {
+        long startTime = System.currentTimeMillis();
+        size = values.length;
+        ByteBuffer buf = ByteBuffer.allocate(maxEncodedBytes(size, bitsNeeded(values, 0, size)));
+        encodeTo(values, 0, size, buf);
+        data = Arrays.copyOf(buf.array(), buf.position());
+        LOG.debug(String.format("Bit-packing encoding for %d values cost %d ms, %f bits per value",
+                size, System.currentTimeMillis() - startTime, 8.0 * data.length / Math.max(size, 1)));
+    }
+
+    @Override
+    public int[] decode() {
+        int[] res = new int[size];
+        decodeInto(ByteBuffer.wrap(data), res, 0);
+        return res;
+    }
+
+    /**
+     * Layout: [size][number of bits][whether runs are encoded][runValue][packed values]
+     */
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        int n = to - from;
+        int numBits = bitsNeeded(src, from, to);
+        boolean encodeRuns = runValue >= 0 && runBits(src, from, to, numBits) < (long) n * numBits;
+        dst.putInt(n);
+        dst.put((byte) numBits);
+        dst.put((byte) (encodeRuns ? 1 : 0));
+        dst.putInt(runValue);
+        BitWriter writer = new BitWriter(dst);
+        if (!encodeRuns) {
+            for (int i = from; i < to; i++)
+                writer.write(src[i], numBits);
+        } else {
+            int i = from;
+            while (i < to) {
+                writer.write(src[i], numBits);
+                if (src[i] == runValue) {
+                    int runLength = runLength(src, i, to);
+                    int k = 31 - Integer.numberOfLeadingZeros(runLength);
+                    writer.writeZeros(k);
+                    writer.write(runLength, k + 1);
+                    i += runLength;
+                } else {
+                    i++;
+                }
+            }
+        }
+        writer.finish();
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        int numBits = src.get();
+        boolean encodeRuns = src.get() != 0;
+        int run = src.getInt();
+        BitReader reader = new BitReader(src);
+        int end = offset + n;
+        if (!encodeRuns) {
+            for (int i = offset; i < end; i++)
+                dst[i] = reader.read(numBits);
+        } else {
+            int i = offset;
+            while (i < end) {
+                int value = reader.read(numBits);
+                if (value == run) {
+                    int k = Integer.numberOfLeadingZeros(reader.peek(32));
+                    reader.skip(k);
+                    int runLength = reader.read(k + 1);
+                    Arrays.fill(dst, i, i + runLength, run);
+                    i += runLength;
+                } else {
+                    dst[i++] = value;
+                }
+            }
+        }
+        reader.finish();
+        return n;
+    }
+
+    private static int bitsNeeded(int[] values, int from, int to) {
+        int or = 0;
+        for (int i = from; i < to; i++)
+            or |= values[i];
+        return 32 - Integer.numberOfLeadingZeros(or);
+    }
+
+    private static int runLength(int[] values, int from, int to) {
+        int i = from + 1;
+        while (i < to && values[i] == values[from])
+            i++;
+        return i - from;
+    }
+
+    /**
+     * @return number of bits if runs of `runValue` are encoded
+     */
+    private long runBits(int[] values, int from, int to, int numBits) {
+        long res = 0;
+        int i = from;
+        while (i < to) {
+            res += numBits;
+            if (values[i] == runValue) {
+                int runLength = runLength(values, i, to);
+                res += 2 * (31 - Integer.numberOfLeadingZeros(runLength)) + 1;
+                i += runLength;
+            } else {
+                i++;
+            }
+        }
+        return res;
+    }
+
+    private static int maxEncodedBytes(int n, int numBits) {
+        return 14 + (int) (((long) n * numBits + 31) >>> 5) * 4;
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.BIT_PACKING;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(data.length);
+        dst.put(data);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        data = new byte[src.getInt()];
+        src.get(data);
+        ByteBuffer header = ByteBuffer.wrap(data);
+        size = header.getInt();
+        runValue = header.getInt(6);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 4 + data.length;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.writeInt(data.length);
+        oos.write(data);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        data = new byte[ois.readInt()];
+        ois.readFully(data);
+        ByteBuffer header = ByteBuffer.wrap(data);
+        size = header.getInt();
+        runValue = header.getInt(6);
+    }
+}
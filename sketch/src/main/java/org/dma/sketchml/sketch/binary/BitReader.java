@@ -0,0 +1,53 @@
+package org.dma.sketchml.sketch.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a stream of bits written by `BitWriter`. Bits beyond the
+ * end of the stream are read as zeros.
+ */
+class BitReader {
+    private final ByteBuffer buf;
+    private int wordsLeft;
+    private long acc;   // available bits are the lowest `n` bits
+    private int n;
+
+    BitReader(ByteBuffer buf) {
+        this.buf = buf;
+        this.wordsLeft = buf.getInt();
+    }
+
+    /**
+     * Read `numBits` bits without consuming them, numBits should be in [0, 32]
+     */
+    int peek(int numBits) {
+        if (n < numBits) {
+            acc = (acc << 32) | (wordsLeft-- > 0 ? buf.getInt() & 0xffffffffL : 0L);
+            n += 32;
+        }
+        return (int) ((acc >>> (n - numBits)) & (0xffffffffL >>> (32 - numBits)));
+    }
+
+    void skip(int numBits) {
+        n -= numBits;
+    }
+
+    int read(int numBits) {
+        int res = peek(numBits);
+        n -= numBits;
+        return res;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+
+    /**
+     * Move the buffer to the end of the stream
+     */
+    void finish() {
+        if (wordsLeft > 0)
+            buf.position(buf.position() + 4 * wordsLeft);
+        wordsLeft = 0;
+    }
+}
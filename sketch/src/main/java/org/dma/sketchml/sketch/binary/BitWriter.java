@@ -0,0 +1,47 @@
+package org.dma.sketchml.sketch.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a stream of bits into a ByteBuffer, fields are written MSB-first
+ * and flushed in 32-bit words. The number of words is patched in front of
+ * the stream on `finish`, so that a `BitReader` never reads beyond it.
+ */
+class BitWriter {
+    private final ByteBuffer buf;
+    private final int start;
+    private long acc;   // pending bits are the lowest `n` bits
+    private int n;
+
+    BitWriter(ByteBuffer buf) {
+        this.buf = buf;
+        this.start = buf.position();
+        buf.putInt(0);
+    }
+
+    /**
+     * Write the lowest `numBits` bits of `value`, numBits should be in [0, 32]
+     */
+    void write(int value, int numBits) {
+        acc = (acc << numBits) | (value & (0xffffffffL >>> (32 - numBits)));
+        n += numBits;
+        if (n >= 32) {
+            n -= 32;
+            buf.putInt((int) (acc >>> n));
+        }
+    }
+
+    void writeZeros(int numBits) {
+        for (; numBits >= 32; numBits -= 32)
+            write(0, 32);
+        write(0, numBits);
+    }
+
+    void finish() {
+        if (n > 0) {
+            buf.putInt((int) (acc << (32 - n)));
+            n = 0;
+        }
+        buf.putInt(start, (buf.position() - start - 4) >> 2);
+    }
+}
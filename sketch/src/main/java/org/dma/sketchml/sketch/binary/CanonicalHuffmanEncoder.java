@@ -0,0 +1,319 @@
+package org.dma.sketchml.sketch.binary;
+
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Huffman encoder with canonical codes. Only the symbols and their code lengths
+ * are transmitted, the codes are re-assigned on the receiver side, and values
+ * are decoded with a lookup table of up to `MAX_LOOKUP_BITS` bits per probe
+ * instead of walking a pointer-based tree bit by bit.
+ *
+ * If `reuseTolerance` is positive, the codebook of the last `encode` call, or one
+ * given by `reuseCodebookOf`, is reused as long as it covers all values and the
+ * histogram has barely changed, so building the Huffman tree is skipped.
+ */
+public class CanonicalHuffmanEncoder implements BinaryEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(CanonicalHuffmanEncoder.class);
+
+    public static final int MAX_LOOKUP_BITS = 11;
+
+    private int size;
+    private HuffmanCodebook codebook;
+    private BitArray bitset;
+    private double reuseTolerance;
+
+    public CanonicalHuffmanEncoder(double reuseTolerance) {
+        this.reuseTolerance = reuseTolerance;
+    }
+
+    public CanonicalHuffmanEncoder() {
+        this(0.0);
+    }
+
+    @Override
+    public void reuseCodebookOf(BinaryEncoder last, double tolerance) {
+        if (last instanceof CanonicalHuffmanEncoder) {
+            codebook = ((CanonicalHuffmanEncoder) last).codebook;
+            reuseTolerance = tolerance;
+        }
+    }
+
+    @Override
+    public void encode(int[] values) {
+        encode(BinArray.wrap(values), HuffmanCodebook.Histogram.count(values));
+    }
+
+    /**
+     * Encode bins from their packed array
+     */
+    @Override
+    public void encode(BinArray values) {
+        encode(values, HuffmanCodebook.Histogram.count(values));
+    }
+
+    /**
+     * @param hist occurrences of values
+     */
+    private void encode(BinArray values, HuffmanCodebook.Histogram hist) {
+        long startTime = System.currentTimeMillis();
+        size = values.length();
+        // 1. build canonical codebook, or reuse the last one if histogram barely changes
+        HuffmanCodebook last = codebook;
+        codebook = HuffmanCodebook.reuseOrBuild(last, hist, reuseTolerance);
+        if (codebook == last)
+            LOG.debug("Reuse Huffman codebook of " + codebook.symbols.length + " symbols");
+        // 2. encode values
+        int[] codes = codebook.codes;
+        int[] codeLengths = codebook.codeLengths;
+        bitset = new BitArray(size * 2);
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            int idx = codebook.indexOf(values.get(i));
+            bitset.setBits(offset, codes[idx], codeLengths[idx]);
+            offset += codeLengths[idx];
+        }
+        LOG.debug(String.format("Canonical Huffman encoding for %d values cost %d ms",
+                size, System.currentTimeMillis() - startTime));
+    }
+
+    @Override
+    public int[] decode() {
+        int[] res = new int[size];
+        decodeTo(BinArray.wrap(res));
+        return res;
+    }
+
+    /**
+     * Decode into a packed array of bins
+     */
+    @Override
+    public BinArray decodeBins(int maxValue) {
+        BinArray res = BinArray.allocate(size, maxValue);
+        decodeTo(res);
+        return res;
+    }
+
+    private void decodeTo(BinArray res) {
+        if (size == 0)
+            return;
+        LookupTable lookup = new LookupTable(codebook);
+        int[] symbols = codebook.symbols;
+        int[] table = lookup.table;
+        int lookupBits = lookup.lookupBits;
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            int entry = table[(int) bitset.getBits(offset, lookupBits)];
+            if (entry != 0) {
+                res.set(i, symbols[entry >>> 6]);
+                offset += entry & 63;
+            } else {
+                int len = lookupBits + 1;
+                while (!lookup.isValid(bitset.getBits(offset, len), len))
+                    len++;
+                res.set(i, symbols[lookup.indexOf(bitset.getBits(offset, len), len)]);
+                offset += len;
+            }
+        }
+    }
+
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        encodeTo(HuffmanCodebook.build(HuffmanCodebook.Histogram.count(src, from, to)),
+                src, from, to, dst);
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        int numSymbols = src.getInt();
+        int[] symbols = new int[numSymbols];
+        int[] codeLengths = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++) {
+            symbols[i] = src.getInt();
+            codeLengths[i] = src.get();
+        }
+        BitReader reader = new BitReader(src);
+        if (n > 0) {
+            LookupTable lookup = new LookupTable(HuffmanCodebook.fromCodeLengths(symbols, codeLengths));
+            int[] table = lookup.table;
+            int lookupBits = lookup.lookupBits;
+            for (int i = offset; i < offset + n; i++) {
+                int entry = table[reader.peek(lookupBits)];
+                if (entry != 0) {
+                    dst[i] = symbols[entry >>> 6];
+                    reader.skip(entry & 63);
+                } else {
+                    int len = lookupBits + 1;
+                    while (!lookup.isValid(reader.peek(len) & 0xffffffffL, len))
+                        len++;
+                    dst[i] = symbols[lookup.indexOf(reader.read(len) & 0xffffffffL, len)];
+                }
+            }
+        }
+        reader.finish();
+        return n;
+    }
+
+    /**
+     * Layout: [size][number of symbols][(symbol, code length) of each symbol][bits of codes]
+     */
+    static void encodeTo(HuffmanCodebook codebook, int[] src, int from, int to, ByteBuffer dst) {
+        dst.putInt(to - from);
+        dst.putInt(codebook.symbols.length);
+        for (int i = 0; i < codebook.symbols.length; i++) {
+            dst.putInt(codebook.symbols[i]);
+            dst.put((byte) codebook.codeLengths[i]);
+        }
+        int[] codes = codebook.codes;
+        int[] codeLengths = codebook.codeLengths;
+        BitWriter writer = new BitWriter(dst);
+        for (int i = from; i < to; i++) {
+            int idx = codebook.indexOf(src[i]);
+            writer.write(codes[idx], codeLengths[idx]);
+        }
+        writer.finish();
+    }
+
+    /**
+     * Decoding table of a canonical codebook. Codes no longer than `lookupBits` are
+     * resolved with one probe, each entry is (index of symbol << 6 | code length).
+     * Longer codes are resolved with the first code and first symbol index of each length.
+     */
+    static class LookupTable {
+        final int lookupBits;
+        final int[] table;
+        private final int maxLength;
+        private final long[] firstCode;
+        private final int[] firstIndex;
+        private final int[] numCodes;
+
+        LookupTable(HuffmanCodebook codebook) {
+            int[] codeLengths = codebook.codeLengths;
+            int[] codes = codebook.codes;
+            int numSymbols = codeLengths.length;
+            maxLength = codeLengths[numSymbols - 1];
+            // 1. build lookup table for codes no longer than `lookupBits`
+            lookupBits = Math.min(maxLength, MAX_LOOKUP_BITS);
+            table = new int[1 << lookupBits];
+            for (int i = 0; i < numSymbols && codeLengths[i] <= lookupBits; i++) {
+                int len = codeLengths[i];
+                int from = codes[i] << (lookupBits - len);
+                int to = (codes[i] + 1) << (lookupBits - len);
+                int entry = (i << 6) | len;
+                for (int j = from; j < to; j++)
+                    table[j] = entry;
+            }
+            // 2. first code and first symbol index of each code length
+            firstCode = new long[maxLength + 1];
+            firstIndex = new int[maxLength + 1];
+            numCodes = new int[maxLength + 1];
+            for (int i = numSymbols - 1; i >= 0; i--) {
+                firstCode[codeLengths[i]] = codes[i] & 0xffffffffL;
+                firstIndex[codeLengths[i]] = i;
+                numCodes[codeLengths[i]]++;
+            }
+        }
+
+        boolean isValid(long code, int len) {
+            if (len > maxLength)
+                throw new SketchMLException("Invalid canonical Huffman code of length " + len);
+            return code >= firstCode[len] && code - firstCode[len] < numCodes[len];
+        }
+
+        int indexOf(long code, int len) {
+            return firstIndex[len] + (int) (code - firstCode[len]);
+        }
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.CANONICAL_HUFFMAN;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        // symbols and code lengths
+        int numSymbols = codebook == null ? 0 : codebook.symbols.length;
+        dst.putInt(numSymbols);
+        for (int i = 0; i < numSymbols; i++) {
+            dst.putInt(codebook.symbols[i]);
+            dst.put((byte) codebook.codeLengths[i]);
+        }
+        // bits
+        BitArray.writeTo(bitset, dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        size = src.getInt();
+        // symbols and code lengths
+        int numSymbols = src.getInt();
+        int[] symbols = new int[numSymbols];
+        int[] codeLengths = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++) {
+            symbols[i] = src.getInt();
+            codeLengths[i] = src.get();
+        }
+        codebook = HuffmanCodebook.fromCodeLengths(symbols, codeLengths);
+        // bits
+        bitset = BitArray.readFrom(src);
+    }
+
+    @Override
+    public int serializedSize() {
+        int numSymbols = codebook == null ? 0 : codebook.symbols.length;
+        return 8 + 5 * numSymbols + BitArray.serializedSize(bitset);
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.writeInt(size);
+        // symbols and code lengths
+        if (codebook == null) {
+            oos.writeInt(0);
+        } else {
+            oos.writeInt(codebook.symbols.length);
+            for (int i = 0; i < codebook.symbols.length; i++) {
+                oos.writeInt(codebook.symbols[i]);
+                oos.writeByte(codebook.codeLengths[i]);
+            }
+        }
+        // bits
+        if (bitset == null) {
+            oos.writeInt(0);
+        } else {
+            long[] bits = bitset.toLongArray();
+            oos.writeInt(bits.length);
+            for (long l : bits)
+                oos.writeLong(l);
+        }
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        size = ois.readInt();
+        // symbols and code lengths
+        int numSymbols = ois.readInt();
+        int[] symbols = new int[numSymbols];
+        int[] codeLengths = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++) {
+            symbols[i] = ois.readInt();
+            codeLengths[i] = ois.readByte();
+        }
+        codebook = HuffmanCodebook.fromCodeLengths(symbols, codeLengths);
+        // bits
+        int numLongs = ois.readInt();
+        long[] bits = new long[numLongs];
+        for (int i = 0; i < numLongs; i++)
+            bits[i] = ois.readLong();
+        bitset = BitArray.valueOf(bits);
+    }
+}
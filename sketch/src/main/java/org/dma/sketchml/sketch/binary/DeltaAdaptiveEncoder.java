@@ -8,7 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.BitSet;
+import java.nio.ByteBuffer;
 
 public class DeltaAdaptiveEncoder implements BinaryEncoder {
     private static final Logger LOG = LoggerFactory.getLogger(DeltaAdaptiveEncoder.class);
@@ -17,13 +17,17 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
     private int numIntervals;   // how many number of intervals it splits [0, 31]
                                 // should be exponential to 2
     private boolean flagKind;   // whether the number of flag bits is dynamic to different interval
-    private BitSet deltaBits;
-    private BitSet flagBits;
+    private BitArray deltaBits;
+    private BitArray flagBits;
 
-    private void calOptimalIntervals(double[] prob) {
+    /**
+     * @param prob
+     * @return the optimal number of intervals << 1 | kind of flag bits
+     */
+    private static int calOptimalIntervals(double[] prob) {
         double optBitsPerKey = 32.0;
-        numIntervals = 1;
-        flagKind = false;
+        int numIntervals = 1;
+        boolean flagKind = false;
         for (int m = 2; m <= 16; m *= 2) {
             double[] intervalProb = new double[m];
             int b = 32 / m;
@@ -48,6 +52,7 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
                 flagKind = true;
             }
         }
+        return (numIntervals << 1) | (flagKind ? 1 : 0);
     }
 
     @Override
@@ -71,10 +76,12 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
         for (int i = 0; i < prob.length; i++)
             prob[i] /= size;
         // 2. get the optimal number of intervals, and the kind of flag bits
-        calOptimalIntervals(prob);
+        int optimal = calOptimalIntervals(prob);
+        numIntervals = optimal >> 1;
+        flagKind = (optimal & 1) == 1;
         // 3. encode deltas
-        deltaBits = new BitSet();
-        flagBits = new BitSet();
+        deltaBits = new BitArray(size * 8);
+        flagBits = new BitArray(size * 2);
         int bitsPerInterval = 32 / numIntervals;
         int bitsShift = Maths.log2nlz(bitsPerInterval);
         int flagOffset = 0, deltaOffset = 0;
@@ -84,10 +91,10 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
                 // ceil(bitsNeeded / bitsPerInterval)
                 int intervalNeeded = (bitsNeeded[i] + bitsPerInterval - 1) >> bitsShift;
                 // set flag
-                BinaryUtils.setBits(flagBits, flagOffset, intervalNeeded - 1, numBitsPerFlag);
+                flagBits.setBits(flagOffset, intervalNeeded - 1, numBitsPerFlag);
                 flagOffset += numBitsPerFlag;
                 // set delta
-                BinaryUtils.setBits(deltaBits, deltaOffset, delta[i], bitsPerInterval * intervalNeeded);
+                deltaBits.setBits(deltaOffset, delta[i], bitsPerInterval * intervalNeeded);
                 deltaOffset += bitsPerInterval * intervalNeeded;
             }
         } else {
@@ -100,10 +107,10 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
                 // ceil(bitsNeeded / bitsPerInterval)
                 int intervalNeeded = (bitsNeeded[i] + bitsPerInterval - 1) >> bitsShift;
                 // set flag
-                BinaryUtils.setBits(flagBits, flagOffset, flagCandidates[intervalNeeded], intervalNeeded + 1);
+                flagBits.setBits(flagOffset, flagCandidates[intervalNeeded], intervalNeeded + 1);
                 flagOffset += intervalNeeded + 1;
                 // set delta
-                BinaryUtils.setBits(deltaBits, deltaOffset, delta[i], bitsPerInterval * intervalNeeded);
+                deltaBits.setBits(deltaOffset, delta[i], bitsPerInterval * intervalNeeded);
                 deltaOffset += bitsPerInterval * intervalNeeded;
             }
         }
@@ -120,10 +127,10 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
             int numBitsPerFlag = Maths.log2nlz(numIntervals);
             for (int i = 0; i < size; i++) {
                 // get flag
-                int intervalNeeded = BinaryUtils.getBits(flagBits, flagOffset, numBitsPerFlag) + 1;
+                int intervalNeeded = (int) flagBits.getBits(flagOffset, numBitsPerFlag) + 1;
                 flagOffset += numBitsPerFlag;
                 // get delta
-                int delta = BinaryUtils.getBits(deltaBits, deltaOffset, bitsPerInterval * intervalNeeded);
+                int delta = (int) deltaBits.getBits(deltaOffset, bitsPerInterval * intervalNeeded);
                 deltaOffset += bitsPerInterval * intervalNeeded;
                 // set value
                 res[i] = prev + delta;
@@ -135,7 +142,7 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
                 int intervalNeeded = 0;
                 while (flagBits.get(flagOffset++)) intervalNeeded++;
                 // get delta
-                int delta = BinaryUtils.getBits(deltaBits, deltaOffset, bitsPerInterval * intervalNeeded);
+                int delta = (int) deltaBits.getBits(deltaOffset, bitsPerInterval * intervalNeeded);
                 deltaOffset += bitsPerInterval * intervalNeeded;
                 // set value
                 res[i] = prev + delta;
@@ -145,6 +152,101 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
         return res;
     }
 
+    /**
+     * Layout: [size][number of intervals][kind of flag bits][bits of (flag, delta) pairs]
+     */
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        int n = to - from;
+        dst.putInt(n);
+        // 1. get probabilities of each range [2^i, 2^(i+1))
+        double[] prob = new double[32];
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            prob[bitsNeeded(src[i] - prev)]++;
+            prev = src[i];
+        }
+        for (int i = 0; i < prob.length; i++)
+            prob[i] /= Math.max(n, 1);
+        // 2. get the optimal number of intervals, and the kind of flag bits
+        int optimal = calOptimalIntervals(prob);
+        int numIntervals = optimal >> 1;
+        boolean flagKind = (optimal & 1) == 1;
+        dst.put((byte) numIntervals);
+        dst.put((byte) (flagKind ? 1 : 0));
+        // 3. encode deltas
+        int bitsPerInterval = 32 / numIntervals;
+        int bitsShift = Maths.log2nlz(bitsPerInterval);
+        int numBitsPerFlag = Maths.log2nlz(numIntervals);
+        BitWriter writer = new BitWriter(dst);
+        prev = 0;
+        for (int i = from; i < to; i++) {
+            int delta = src[i] - prev;
+            int intervalNeeded = (bitsNeeded(delta) + bitsPerInterval - 1) >> bitsShift;
+            if (!flagKind)
+                writer.write(intervalNeeded - 1, numBitsPerFlag);
+            else
+                writer.write((1 << (intervalNeeded + 1)) - 2, intervalNeeded + 1);
+            writer.write(delta, bitsPerInterval * intervalNeeded);
+            prev = src[i];
+        }
+        writer.finish();
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        int numIntervals = src.get();
+        boolean flagKind = src.get() != 0;
+        int bitsPerInterval = 32 / numIntervals;
+        int numBitsPerFlag = Maths.log2nlz(numIntervals);
+        BitReader reader = new BitReader(src);
+        int prev = 0;
+        for (int i = offset; i < offset + n; i++) {
+            int intervalNeeded = 0;
+            if (!flagKind)
+                intervalNeeded = reader.read(numBitsPerFlag) + 1;
+            else
+                while (reader.readBit()) intervalNeeded++;
+            prev += reader.read(bitsPerInterval * intervalNeeded);
+            dst[i] = prev;
+        }
+        reader.finish();
+        return n;
+    }
+
+    private static int bitsNeeded(int delta) {
+        return delta == 0 ? 1 : Maths.log2nlz(delta) + 1;
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.DELTA_ADAPTIVE;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        dst.put((byte) numIntervals);
+        dst.put((byte) (flagKind ? 1 : 0));
+        BitArray.writeTo(flagBits, dst);
+        BitArray.writeTo(deltaBits, dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        size = src.getInt();
+        numIntervals = src.get();
+        flagKind = src.get() != 0;
+        flagBits = BitArray.readFrom(src);
+        deltaBits = BitArray.readFrom(src);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 6 + BitArray.serializedSize(flagBits) + BitArray.serializedSize(deltaBits);
+    }
+
     private void writeObject(ObjectOutputStream oos) throws IOException {
         oos.writeInt(size);
         oos.writeInt(numIntervals);
@@ -178,12 +280,12 @@ public class DeltaAdaptiveEncoder implements BinaryEncoder {
         for (int i = 0; i < flagsLength; i++) {
             flags[i] = ois.readLong();
         }
-        flagBits = BitSet.valueOf(flags);
+        flagBits = BitArray.valueOf(flags);
         int deltaLength = ois.readInt();
         long[] delta = new long[deltaLength];
         for (int i = 0; i < deltaLength; i++) {
             delta[i] = ois.readLong();
         }
-        deltaBits = BitSet.valueOf(delta);
+        deltaBits = BitArray.valueOf(delta);
     }
 }
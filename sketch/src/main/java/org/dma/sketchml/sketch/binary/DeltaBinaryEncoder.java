@@ -8,7 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.BitSet;
+import java.nio.ByteBuffer;
 
 /**
  * This is the special case for DeltaAdaptiveEncoder
@@ -19,20 +19,20 @@ public class DeltaBinaryEncoder implements BinaryEncoder {
     private static final Logger LOG = LoggerFactory.getLogger(DeltaBinaryEncoder.class);
 
     private int size;
-    private BitSet deltaBits;
-    private BitSet flagBits;
+    private BitArray deltaBits;
+    private BitArray flagBits;
 
     @Override
     public void encode(int[] values) {
         size = values.length;
-        flagBits = new BitSet(size * 2);
-        deltaBits = new BitSet(size * 12);
+        flagBits = new BitArray(size * 2);
+        deltaBits = new BitArray(size * 12);
         int offset = 0, prev = 0;
         for (int i = 0; i < size; i++) {
             int delta = values[i] - prev;
             int bytesNeeded = needBytes(delta);
-            BinaryUtils.setBits(flagBits, 2 * i, bytesNeeded - 1, 2);
-            BinaryUtils.setBytes(deltaBits, offset, delta, bytesNeeded);
+            flagBits.setBits(2 * i, bytesNeeded - 1, 2);
+            deltaBits.setBytes(offset, delta, bytesNeeded);
             prev = values[i];
             offset += bytesNeeded * 8;
         }
@@ -43,8 +43,8 @@ public class DeltaBinaryEncoder implements BinaryEncoder {
         int[] res = new int[size];
         int offset = 0, prev = 0;
         for (int i = 0; i < size; i++) {
-            int bytesNeeded = BinaryUtils.getBits(flagBits, i * 2, 2) + 1;
-            int delta = BinaryUtils.getBytes(deltaBits, offset, bytesNeeded);
+            int bytesNeeded = (int) flagBits.getBits(i * 2, 2) + 1;
+            int delta = (int) deltaBits.getBytes(offset, bytesNeeded);
             res[i] = prev + delta;
             prev = res[i];
             offset += bytesNeeded * 8;
@@ -52,6 +52,35 @@ public class DeltaBinaryEncoder implements BinaryEncoder {
         return res;
     }
 
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        dst.putInt(to - from);
+        BitWriter writer = new BitWriter(dst);
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            int delta = src[i] - prev;
+            int bytesNeeded = needBytes(delta);
+            writer.write(bytesNeeded - 1, 2);
+            writer.write(delta, bytesNeeded * 8);
+            prev = src[i];
+        }
+        writer.finish();
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        BitReader reader = new BitReader(src);
+        int prev = 0;
+        for (int i = offset; i < offset + n; i++) {
+            int bytesNeeded = reader.read(2) + 1;
+            prev += reader.read(bytesNeeded * 8);
+            dst[i] = prev;
+        }
+        reader.finish();
+        return n;
+    }
+
     public static int needBytes(int x) {
         if (x < 0) {
             throw new SketchMLException("Input of DeltaBinaryEncoder should be sorted");
@@ -64,6 +93,30 @@ public class DeltaBinaryEncoder implements BinaryEncoder {
         }
     }
 
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.DELTA_BINARY;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        BitArray.writeTo(flagBits, dst);
+        BitArray.writeTo(deltaBits, dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        size = src.getInt();
+        flagBits = BitArray.readFrom(src);
+        deltaBits = BitArray.readFrom(src);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 4 + BitArray.serializedSize(flagBits) + BitArray.serializedSize(deltaBits);
+    }
+
     private void writeObject(ObjectOutputStream oos) throws IOException {
         oos.writeInt(size);
         if (flagBits == null) {
@@ -93,12 +146,12 @@ public class DeltaBinaryEncoder implements BinaryEncoder {
         for (int i = 0; i < flagsLength; i++) {
             flags[i] = ois.readLong();
         }
-        flagBits = BitSet.valueOf(flags);
+        flagBits = BitArray.valueOf(flags);
         int deltaLength = ois.readInt();
         long[] delta = new long[deltaLength];
         for (int i = 0; i < deltaLength; i++) {
             delta[i] = ois.readLong();
         }
-        deltaBits = BitSet.valueOf(delta);
+        deltaBits = BitArray.valueOf(delta);
     }
 }
@@ -0,0 +1,371 @@
+package org.dma.sketchml.sketch.binary;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import org.dma.sketchml.sketch.base.RandomAccessEncoder;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Elias-Fano encoder for sorted non-negative integers.
+ *
+ * Each value is split into `numLowBits` low bits, which are stored verbatim,
+ * and the high part, which is stored in unary as a one at position `high + index`
+ * of `highBits`. It takes at most 2 + log(u / n) bits per value, and supports
+ * `get` and `nextGEQ` with positions of every `SAMPLE_RATE`-th one and zero.
+ */
+public class EliasFanoEncoder implements RandomAccessEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(EliasFanoEncoder.class);
+
+    public static final int SAMPLE_RATE = 256;
+
+    private int size;
+    private int numLowBits;
+    private long[] lowBits;
+    private long[] highBits;
+    private int highLength;     // number of bits in `highBits`
+
+    // positions of every `SAMPLE_RATE`-th one and zero in `highBits`,
+    // which are re-built rather than serialized
+    private int[] oneSamples;
+    private int[] zeroSamples;
+
+    @Override
+    public void encode(int[] values) {
+        long startTime = System.currentTimeMillis();
+        size = values.length;
+        if (size == 0) {
+            numLowBits = 0;
+            lowBits = new long[0];
+            highBits = new long[0];
+            highLength = 0;
+            buildSamples();
+            return;
+        }
+        if (values[0] < 0 || values[size - 1] < values[0])
+            throw new SketchMLException("Input of EliasFanoEncoder should be sorted and non-negative");
+        long universe = values[size - 1] + 1L;
+        numLowBits = universe > size ? 63 - Long.numberOfLeadingZeros(universe / size) : 0;
+        int maxHigh = values[size - 1] >>> numLowBits;
+        highLength = size + maxHigh + 1;
+        lowBits = new long[(int) (((long) size * numLowBits + 63) >>> 6)];
+        highBits = new long[(highLength + 63) >>> 6];
+        long lowMask = (1L << numLowBits) - 1;
+        int prev = 0;
+        for (int i = 0; i < size; i++) {
+            int v = values[i];
+            if (v < prev)
+                throw new SketchMLException("Input of EliasFanoEncoder should be sorted and non-negative");
+            writeLow(i, v & lowMask);
+            int pos = (v >>> numLowBits) + i;
+            highBits[pos >>> 6] |= 1L << pos;
+            prev = v;
+        }
+        buildSamples();
+        LOG.debug(String.format("Elias-Fano encoding for %d values cost %d ms, %f bits per key",
+                size, System.currentTimeMillis() - startTime,
+                64.0 * (lowBits.length + highBits.length) / size));
+    }
+
+    @Override
+    public int[] decode() {
+        int[] res = new int[size];
+        int idx = 0;
+        for (int word = 0; idx < size; word++) {
+            long w = highBits[word];
+            while (w != 0) {
+                int pos = (word << 6) + Long.numberOfTrailingZeros(w);
+                res[idx] = ((pos - idx) << numLowBits) | (int) readLow(idx);
+                idx++;
+                w &= w - 1;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Layout: [size][number of low bits][low bits][high bits in unary]
+     */
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        int n = to - from;
+        dst.putInt(n);
+        if (n > 0 && (src[from] < 0 || src[to - 1] < src[from]))
+            throw new SketchMLException("Input of EliasFanoEncoder should be sorted and non-negative");
+        long universe = n == 0 ? 0 : src[to - 1] + 1L;
+        int lowBitsNum = universe > n ? 63 - Long.numberOfLeadingZeros(universe / n) : 0;
+        dst.put((byte) lowBitsNum);
+        // 1. low bits
+        BitWriter lowWriter = new BitWriter(dst);
+        for (int i = from; i < to; i++)
+            lowWriter.write(src[i], lowBitsNum);
+        lowWriter.finish();
+        // 2. high bits, gap of high parts in zeros followed by a one
+        BitWriter highWriter = new BitWriter(dst);
+        int prev = 0, prevHigh = 0;
+        for (int i = from; i < to; i++) {
+            if (src[i] < prev)
+                throw new SketchMLException("Input of EliasFanoEncoder should be sorted and non-negative");
+            int high = src[i] >>> lowBitsNum;
+            highWriter.writeZeros(high - prevHigh);
+            highWriter.write(1, 1);
+            prev = src[i];
+            prevHigh = high;
+        }
+        highWriter.finish();
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        int lowBitsNum = src.get();
+        BitReader lowReader = new BitReader(src);
+        for (int i = offset; i < offset + n; i++)
+            dst[i] = lowReader.read(lowBitsNum);
+        lowReader.finish();
+        BitReader highReader = new BitReader(src);
+        int high = 0;
+        for (int i = offset; i < offset + n; i++) {
+            int w = highReader.peek(32);
+            while (w == 0) {
+                highReader.skip(32);
+                high += 32;
+                w = highReader.peek(32);
+            }
+            int zeros = Integer.numberOfLeadingZeros(w);
+            highReader.skip(zeros + 1);
+            high += zeros;
+            dst[i] |= high << lowBitsNum;
+        }
+        highReader.finish();
+        return n;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of range [0, " + size + ")");
+        int high = select1(index) - index;
+        return (high << numLowBits) | (int) readLow(index);
+    }
+
+    @Override
+    public int nextGEQ(int value) {
+        if (size == 0 || value <= 0)
+            return 0;
+        int high = value >>> numLowBits;
+        if (high > highLength - size - 1)
+            return size;
+        // the first value whose high part is no less than `high`
+        // lies right after the (high - 1)-th zero
+        int pos = high == 0 ? 0 : select0(high - 1) + 1;
+        int idx = pos - high;
+        while (idx < size) {
+            if ((highBits[pos >>> 6] & (1L << pos)) != 0) {
+                long v = ((long) (pos - idx) << numLowBits) | readLow(idx);
+                if (v >= value)
+                    return idx;
+                idx++;
+            }
+            pos++;
+        }
+        return size;
+    }
+
+    @Override
+    public IntIterator iterator() {
+        return new AbstractIntIterator() {
+            private int idx = 0;
+            private int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public int nextInt() {
+                int word = pos >>> 6;
+                long w = highBits[word] & (-1L << pos);
+                while (w == 0)
+                    w = highBits[++word];
+                pos = (word << 6) + Long.numberOfTrailingZeros(w);
+                int res = ((pos - idx) << numLowBits) | (int) readLow(idx);
+                idx++;
+                pos++;
+                return res;
+            }
+        };
+    }
+
+    private void writeLow(int index, long low) {
+        if (numLowBits == 0) return;
+        long bitPos = (long) index * numLowBits;
+        int word = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        lowBits[word] |= low << shift;
+        if (shift + numLowBits > 64)
+            lowBits[word + 1] |= low >>> (64 - shift);
+    }
+
+    private long readLow(int index) {
+        if (numLowBits == 0) return 0L;
+        long bitPos = (long) index * numLowBits;
+        int word = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        long res = lowBits[word] >>> shift;
+        if (shift + numLowBits > 64)
+            res |= lowBits[word + 1] << (64 - shift);
+        return res & ((1L << numLowBits) - 1);
+    }
+
+    /**
+     * @return position of the rank-th (starting from 0) one in `highBits`
+     */
+    private int select1(int rank) {
+        int sample = rank / SAMPLE_RATE;
+        int pos = oneSamples[sample];
+        int remain = rank - sample * SAMPLE_RATE;
+        int word = pos >>> 6;
+        long w = highBits[word] & (-1L << pos);
+        int cnt = Long.bitCount(w);
+        while (remain >= cnt) {
+            remain -= cnt;
+            w = highBits[++word];
+            cnt = Long.bitCount(w);
+        }
+        for (int i = 0; i < remain; i++)
+            w &= w - 1;
+        return (word << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    /**
+     * @return position of the rank-th (starting from 0) zero in `highBits`
+     */
+    private int select0(int rank) {
+        int sample = rank / SAMPLE_RATE;
+        int pos = zeroSamples[sample];
+        int remain = rank - sample * SAMPLE_RATE;
+        int word = pos >>> 6;
+        long w = ~highBits[word] & (-1L << pos);
+        int cnt = Long.bitCount(w);
+        while (remain >= cnt) {
+            remain -= cnt;
+            w = ~highBits[++word];
+            cnt = Long.bitCount(w);
+        }
+        for (int i = 0; i < remain; i++)
+            w &= w - 1;
+        return (word << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    private void buildSamples() {
+        IntArrayList ones = new IntArrayList(size / SAMPLE_RATE + 1);
+        IntArrayList zeros = new IntArrayList((highLength - size) / SAMPLE_RATE + 1);
+        int numOnes = 0, numZeros = 0;
+        int numWords = (highLength + 63) >>> 6;
+        for (int word = 0; word < numWords; word++) {
+            int numBits = Math.min(64, highLength - (word << 6));
+            long mask = numBits == 64 ? -1L : (1L << numBits) - 1;
+            numOnes = sampleWord(highBits[word] & mask, word, numOnes, ones);
+            numZeros = sampleWord(~highBits[word] & mask, word, numZeros, zeros);
+        }
+        oneSamples = ones.toIntArray();
+        zeroSamples = zeros.toIntArray();
+    }
+
+    /**
+     * Add positions of set bits in a word whose ranks are multiples of `SAMPLE_RATE`
+     *
+     * @param count number of set bits before the word
+     * @return number of set bits until the end of the word
+     */
+    private static int sampleWord(long w, int word, int count, IntArrayList samples) {
+        int cnt = Long.bitCount(w);
+        // rank of the next sample within the word
+        int next = (SAMPLE_RATE - count % SAMPLE_RATE) % SAMPLE_RATE;
+        int skip = next;
+        while (next < cnt) {
+            for (int i = 0; i < skip; i++)
+                w &= w - 1;
+            samples.add((word << 6) + Long.numberOfTrailingZeros(w));
+            next += SAMPLE_RATE;
+            skip = SAMPLE_RATE;
+        }
+        return count + cnt;
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.ELIAS_FANO;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        dst.put((byte) numLowBits);
+        dst.putInt(highLength);
+        dst.putInt(lowBits.length);
+        for (long l : lowBits)
+            dst.putLong(l);
+        dst.putInt(highBits.length);
+        for (long l : highBits)
+            dst.putLong(l);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        size = src.getInt();
+        numLowBits = src.get();
+        highLength = src.getInt();
+        lowBits = new long[src.getInt()];
+        for (int i = 0; i < lowBits.length; i++)
+            lowBits[i] = src.getLong();
+        highBits = new long[src.getInt()];
+        for (int i = 0; i < highBits.length; i++)
+            highBits[i] = src.getLong();
+        buildSamples();
+    }
+
+    @Override
+    public int serializedSize() {
+        return 17 + 8 * (lowBits.length + highBits.length);
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.writeInt(size);
+        oos.writeInt(numLowBits);
+        oos.writeInt(highLength);
+        oos.writeInt(lowBits.length);
+        for (long l : lowBits)
+            oos.writeLong(l);
+        oos.writeInt(highBits.length);
+        for (long l : highBits)
+            oos.writeLong(l);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        size = ois.readInt();
+        numLowBits = ois.readInt();
+        highLength = ois.readInt();
+        lowBits = new long[ois.readInt()];
+        for (int i = 0; i < lowBits.length; i++)
+            lowBits[i] = ois.readLong();
+        highBits = new long[ois.readInt()];
+        for (int i = 0; i < highBits.length; i++)
+            highBits[i] = ois.readLong();
+        buildSamples();
+    }
+}
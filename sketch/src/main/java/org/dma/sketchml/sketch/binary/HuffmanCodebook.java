@@ -0,0 +1,307 @@
+package org.dma.sketchml.sketch.binary;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.dma.sketchml.sketch.base.BinArray;
+
+import java.util.Arrays;
+
+/**
+ * Canonical Huffman codebook shared by Huffman encoders.
+ *
+ * Symbols in a small dense range, e.g. quantization bins, are counted and
+ * mapped to codes with flat arrays, other alphabets fall back to a hash map.
+ */
+class HuffmanCodebook {
+    public static final int MAX_CODE_LENGTH = 32;
+    public static final int DENSE_RANGE_LIMIT = 1 << 16;
+
+    int[] symbols;       // sorted by (code length, value)
+    int[] codeLengths;   // code length of each symbol
+    int[] codes;         // canonical code of each symbol
+    long[] counts;       // occurrence of each symbol when the codebook is built
+    long total;
+
+    // value --> index of symbol, flat array if dense, otherwise hash map
+    private int base;
+    private int[] denseIndex;
+    private Int2IntOpenHashMap sparseIndex;
+
+    private HuffmanCodebook(int[] symbols, int[] codeLengths, long[] counts) {
+        this.symbols = symbols;
+        this.codeLengths = codeLengths;
+        this.codes = assignCodes(codeLengths);
+        this.counts = counts;
+        for (long c : counts)
+            total += c;
+        buildIndex();
+    }
+
+    /**
+     * Build a codebook from given symbols and code lengths,
+     * which are received from the encoder side
+     */
+    static HuffmanCodebook fromCodeLengths(int[] symbols, int[] codeLengths) {
+        return new HuffmanCodebook(symbols, codeLengths, new long[symbols.length]);
+    }
+
+    /**
+     * Build an optimal codebook for the histogram
+     */
+    static HuffmanCodebook build(Histogram hist) {
+        int numSymbols = hist.symbols.length;
+        int[] lengths = buildCodeLengths(hist.counts, MAX_CODE_LENGTH);
+        // sort symbols by (code length, value), which defines the canonical codes
+        long[] order = new long[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            order[i] = ((long) lengths[i] << 32) | i;
+        Arrays.sort(order);
+        int[] symbols = new int[numSymbols];
+        int[] codeLengths = new int[numSymbols];
+        long[] counts = new long[numSymbols];
+        for (int i = 0; i < numSymbols; i++) {
+            int idx = (int) order[i];
+            symbols[i] = hist.symbols[idx];
+            codeLengths[i] = lengths[idx];
+            counts[i] = hist.counts[idx];
+        }
+        return new HuffmanCodebook(symbols, codeLengths, counts);
+    }
+
+    private void buildIndex() {
+        int numSymbols = symbols.length;
+        if (numSymbols == 0) {
+            denseIndex = new int[0];
+            return;
+        }
+        int min = symbols[0], max = symbols[0];
+        for (int s : symbols) {
+            min = Math.min(min, s);
+            max = Math.max(max, s);
+        }
+        if ((long) max - min < DENSE_RANGE_LIMIT) {
+            base = min;
+            denseIndex = new int[max - min + 1];
+            Arrays.fill(denseIndex, -1);
+            for (int i = 0; i < numSymbols; i++)
+                denseIndex[symbols[i] - base] = i;
+        } else {
+            sparseIndex = new Int2IntOpenHashMap(numSymbols);
+            sparseIndex.defaultReturnValue(-1);
+            for (int i = 0; i < numSymbols; i++)
+                sparseIndex.put(symbols[i], i);
+        }
+    }
+
+    /**
+     * @return index of the symbol, or -1 if the value is not in the codebook
+     */
+    int indexOf(int value) {
+        if (denseIndex != null) {
+            int t = value - base;
+            return t >= 0 && t < denseIndex.length ? denseIndex[t] : -1;
+        } else {
+            return sparseIndex.get(value);
+        }
+    }
+
+    /**
+     * Whether this codebook can be reused for a new histogram, i.e., every symbol
+     * of the histogram has a code and the total variation distance between the
+     * histogram and the one this codebook is built from does not exceed `tolerance`.
+     * Codebooks received from the encoder side have no counts and are never reused.
+     */
+    boolean reusableFor(Histogram hist, double tolerance) {
+        if (total == 0 || hist.total == 0)
+            return false;
+        double[] prob = new double[symbols.length];
+        for (int i = 0; i < hist.symbols.length; i++) {
+            int idx = indexOf(hist.symbols[i]);
+            if (idx < 0)
+                return false;
+            prob[idx] = 1.0 * hist.counts[i] / hist.total;
+        }
+        double dist = 0.0;
+        for (int i = 0; i < symbols.length; i++)
+            dist += Math.abs(prob[i] - 1.0 * counts[i] / total);
+        return 0.5 * dist <= tolerance;
+    }
+
+    /**
+     * Build a codebook for the histogram, or return `last` if it can be reused
+     *
+     * @param last codebook of a previous encoding, may be null
+     * @param tolerance non-positive to always build a new one
+     */
+    static HuffmanCodebook reuseOrBuild(HuffmanCodebook last, Histogram hist, double tolerance) {
+        if (last != null && tolerance > 0.0 && last.reusableFor(hist, tolerance))
+            return last;
+        return build(hist);
+    }
+
+    /**
+     * Assign canonical codes, lengths should be sorted in ascending order
+     */
+    static int[] assignCodes(int[] lengths) {
+        int[] codes = new int[lengths.length];
+        long code = 0;
+        int prevLength = lengths.length > 0 ? lengths[0] : 0;
+        for (int i = 0; i < lengths.length; i++) {
+            code <<= lengths[i] - prevLength;
+            codes[i] = (int) code;
+            prevLength = lengths[i];
+            code++;
+        }
+        return codes;
+    }
+
+    /**
+     * Compute Huffman code lengths of symbols with given occurrences,
+     * frequencies are halved until no code is longer than `maxLength`
+     *
+     * @param counts occurrence of each symbol, should be positive
+     * @param maxLength
+     * @return
+     */
+    static int[] buildCodeLengths(long[] counts, int maxLength) {
+        int n = counts.length;
+        int[] lengths = new int[n];
+        if (n == 0) {
+            return lengths;
+        } else if (n == 1) {
+            lengths[0] = 1;
+            return lengths;
+        }
+        // sort symbols by occurrence, both fit in 31 bits
+        long[] sorted = new long[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = (counts[i] << 31) | i;
+        Arrays.sort(sorted);
+        int[] order = new int[n];
+        long[] w = new long[2 * n - 1];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (sorted[i] & Integer.MAX_VALUE);
+            w[i] = sorted[i] >>> 31;
+        }
+        int[] parent = new int[2 * n - 1];
+        while (true) {
+            // two-queue merging, leaves [0, n) and internal nodes [n, 2n - 1)
+            // are both sorted by weight
+            int leaf = 0, node = n;
+            for (int k = n; k < 2 * n - 1; k++) {
+                int a = (leaf < n && (node >= k || w[leaf] <= w[node])) ? leaf++ : node++;
+                int b = (leaf < n && (node >= k || w[leaf] <= w[node])) ? leaf++ : node++;
+                w[k] = w[a] + w[b];
+                parent[a] = k;
+                parent[b] = k;
+            }
+            int[] depth = new int[2 * n - 1];
+            int max = 0;
+            for (int k = 2 * n - 3; k >= 0; k--) {
+                depth[k] = depth[parent[k]] + 1;
+                max = Math.max(max, depth[k]);
+            }
+            if (max <= maxLength) {
+                for (int i = 0; i < n; i++)
+                    lengths[order[i]] = depth[i];
+                return lengths;
+            }
+            for (int i = 0; i < n; i++)
+                w[i] = (w[i] + 1) >> 1;
+        }
+    }
+
+    /**
+     * Occurrences of distinct values, sorted by value
+     */
+    static class Histogram {
+        int[] symbols;
+        long[] counts;
+        long total;
+
+        static Histogram count(int[] values) {
+            return count(values, 0, values.length);
+        }
+
+        static Histogram count(int[] values, int from, int to) {
+            Histogram hist = new Histogram();
+            hist.total = to - from;
+            if (to == from) {
+                hist.symbols = new int[0];
+                hist.counts = new long[0];
+                return hist;
+            }
+            int min = values[from], max = values[from];
+            for (int i = from; i < to; i++) {
+                if (values[i] < min) min = values[i];
+                if (values[i] > max) max = values[i];
+            }
+            if ((long) max - min < DENSE_RANGE_LIMIT) {
+                // small dense alphabet, count with flat array
+                int[] freq = new int[max - min + 1];
+                for (int i = from; i < to; i++)
+                    freq[values[i] - min]++;
+                hist.setDense(freq, min);
+            } else {
+                Int2IntOpenHashMap freq = new Int2IntOpenHashMap();
+                for (int i = from; i < to; i++)
+                    freq.addTo(values[i], 1);
+                int numSymbols = freq.size();
+                long[] sorted = new long[numSymbols];
+                int cnt = 0;
+                for (Int2IntMap.Entry entry : freq.int2IntEntrySet())
+                    sorted[cnt++] = ((long) entry.getIntKey() << 32) | entry.getIntValue();
+                Arrays.sort(sorted);
+                hist.symbols = new int[numSymbols];
+                hist.counts = new long[numSymbols];
+                for (int i = 0; i < numSymbols; i++) {
+                    hist.symbols[i] = (int) (sorted[i] >> 32);
+                    hist.counts[i] = sorted[i] & 0xffffffffL;
+                }
+            }
+            return hist;
+        }
+
+        /**
+         * Count bins in their packed array, without copying them into an int array
+         */
+        static Histogram count(BinArray bins) {
+            int n = bins.length();
+            if (n == 0)
+                return count(new int[0]);
+            int min = bins.get(0), max = min;
+            for (int i = 1; i < n; i++) {
+                int v = bins.get(i);
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            if ((long) max - min >= DENSE_RANGE_LIMIT)
+                return count(bins.toIntArray());
+            int[] freq = new int[max - min + 1];
+            for (int i = 0; i < n; i++)
+                freq[bins.get(i) - min]++;
+            Histogram hist = new Histogram();
+            hist.total = n;
+            hist.setDense(freq, min);
+            return hist;
+        }
+
+        /**
+         * Set symbols from occurrences of values in [min, min + freq.length)
+         */
+        private void setDense(int[] freq, int min) {
+            int numSymbols = 0;
+            for (int f : freq)
+                if (f > 0) numSymbols++;
+            symbols = new int[numSymbols];
+            counts = new long[numSymbols];
+            for (int i = 0, cnt = 0; i < freq.length; i++) {
+                if (freq[i] > 0) {
+                    symbols[cnt] = i + min;
+                    counts[cnt] = freq[i];
+                    cnt++;
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package org.dma.sketchml.sketch.binary;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
 import org.dma.sketchml.sketch.base.BinaryEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,16 +7,27 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.*;
-import java.util.stream.IntStream;
+import java.nio.ByteBuffer;
 
 public class HuffmanEncoder implements BinaryEncoder {
     private static final Logger LOG = LoggerFactory.getLogger(HuffmanEncoder.class);
 
     private Item[] items;
-    private BitSet bitset;
+    private BitArray bitset;
     private int size;
 
+    // the codebook is kept to be reused across `encode` calls when
+    // the total variation distance of histograms is within `reuseTolerance`
+    private transient HuffmanCodebook codebook;
+    private double reuseTolerance;
+
+    public HuffmanEncoder(double reuseTolerance) {
+        this.reuseTolerance = reuseTolerance;
+    }
+
+    public HuffmanEncoder() {
+        this(0.0);
+    }
 
     private class Node {
         int value;
@@ -35,21 +44,9 @@ public class HuffmanEncoder implements BinaryEncoder {
             this.isLeaf = isLeaf;
         }
 
-        Node(int value, int occurrence) {
-            this(value, occurrence, null, null, false);
-        }
-
         Node() {
             this(-1, -1, null, null, false);
         }
-
-        int getValue() {
-            return value;
-        }
-
-        int getOccurrence() {
-            return occurrence;
-        }
     }
 
     private class Item {
@@ -75,12 +72,11 @@ public class HuffmanEncoder implements BinaryEncoder {
         }
     }
 
-    private void traverse(Node node, Int2ObjectMap<Item> mapping, int bits, int depth) {
-        if (node.isLeaf) {
-            mapping.put(node.value, new Item(node.value, bits, depth == 0 ? 1 : depth));
-        } else {
-            traverse(node.leftChild, mapping, bits << 1, depth + 1);
-            traverse(node.rightChild, mapping, (bits << 1) | 1, depth + 1);
+    @Override
+    public void reuseCodebookOf(BinaryEncoder last, double tolerance) {
+        if (last instanceof HuffmanEncoder) {
+            codebook = ((HuffmanEncoder) last).codebook;
+            reuseTolerance = tolerance;
         }
     }
 
@@ -88,35 +84,21 @@ public class HuffmanEncoder implements BinaryEncoder {
     public void encode(int[] values) {
         long startTime = System.currentTimeMillis();
         // 1. count occurrences
-        Int2ObjectRBTreeMap<Node> freq = new Int2ObjectRBTreeMap<>();
-        for (int v : values) {
-            Node node = freq.get(v);
-            if (node != null)
-                node.occurrence++;
-            else
-                freq.put(v, new Node(v, 1, null, null, true));
-        }
-        // 2. build tree
-        PriorityQueue<Node> heap = new PriorityQueue<>(freq.size(),
-                Comparator.comparing(Node::getOccurrence));
-        heap.addAll(freq.values());
-        while (heap.size() > 1) {
-            Node x = heap.poll();
-            Node y = heap.poll();
-            Node p = new Node(-1, x.occurrence + y.occurrence, x, y, false);
-            heap.add(p);
-        }
-        Int2ObjectMap<Item> mapping = new Int2ObjectRBTreeMap<>();
-        traverse(heap.peek(), mapping, 0, 0);
-        items = new Item[mapping.size()];
-        mapping.values().toArray(items);
+        HuffmanCodebook.Histogram hist = HuffmanCodebook.Histogram.count(values);
+        // 2. build codebook, or reuse the last one if histogram barely changes
+        codebook = HuffmanCodebook.reuseOrBuild(codebook, hist, reuseTolerance);
+        int[] codes = codebook.codes;
+        int[] codeLengths = codebook.codeLengths;
+        items = new Item[codebook.symbols.length];
+        for (int i = 0; i < items.length; i++)
+            items[i] = new Item(codebook.symbols[i], codes[i], codeLengths[i]);
         // 3. encode values
-        bitset = new BitSet();
+        bitset = new BitArray(values.length * 2);
         int offset = 0;
         for (int v : values) {
-            Item item = mapping.get(v);
-            BinaryUtils.setBits(bitset, offset, item.bits, item.numBits);
-            offset += item.numBits;
+            int idx = codebook.indexOf(v);
+            bitset.setBits(offset, codes[idx], codeLengths[idx]);
+            offset += codeLengths[idx];
         }
         size = values.length;
         LOG.debug(String.format("Huffman encoding for %d values cost %d ms",
@@ -165,6 +147,56 @@ public class HuffmanEncoder implements BinaryEncoder {
         return res;
     }
 
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        // streams share the layout of canonical Huffman codes
+        CanonicalHuffmanEncoder.encodeTo(HuffmanCodebook.build(
+                HuffmanCodebook.Histogram.count(src, from, to)), src, from, to, dst);
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        return new CanonicalHuffmanEncoder().decodeInto(src, dst, offset);
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.HUFFMAN;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        // items
+        int numItems = items == null ? 0 : items.length;
+        dst.putInt(numItems);
+        for (int i = 0; i < numItems; i++) {
+            dst.putInt(items[i].value);
+            dst.putInt(items[i].bits);
+            dst.put((byte) items[i].numBits);
+        }
+        // bit set
+        BitArray.writeTo(bitset, dst);
+        // size
+        dst.putInt(size);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        // items
+        items = new Item[src.getInt()];
+        for (int i = 0; i < items.length; i++)
+            items[i] = new Item(src.getInt(), src.getInt(), src.get());
+        // bit set
+        bitset = BitArray.readFrom(src);
+        // size
+        size = src.getInt();
+    }
+
+    @Override
+    public int serializedSize() {
+        return 8 + 9 * (items == null ? 0 : items.length) + BitArray.serializedSize(bitset);
+    }
+
     private void writeObject(ObjectOutputStream oos) throws IOException {
         // items
         if (items == null) {
@@ -201,7 +233,7 @@ public class HuffmanEncoder implements BinaryEncoder {
         long[] bits = new long[numLongs];
         for (int i = 0; i < numLongs; i++)
             bits[i] = ois.readLong();
-        bitset = BitSet.valueOf(bits);
+        bitset = BitArray.valueOf(bits);
         // size
         size = ois.readInt();
     }
@@ -0,0 +1,323 @@
+package org.dma.sketchml.sketch.binary;
+
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Patched frame-of-reference encoder for sorted integers, in the style of FastPFor.
+ *
+ * Deltas are split into blocks of `BLOCK_SIZE` integers. Each block chooses its own
+ * bit width `b`, deltas that do not fit in `b` bits are stored as exceptions, i.e.,
+ * their positions and high bits are appended after the block.
+ *
+ * Low bits of a block are packed in a vertical layout of `LANES` interleaved lanes,
+ * so that the inner loops of packing and unpacking run over independent lanes
+ * and can be auto-vectorized by the JIT.
+ *
+ * Layout of a block:
+ * [header: b | numExceptions << 8 | exceptionBits << 16]
+ * [low bits: `LANES` * b words]
+ * [positions of exceptions: one byte each]
+ * [high bits of exceptions: `exceptionBits` bits each]
+ */
+public class PForDeltaEncoder implements BinaryEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(PForDeltaEncoder.class);
+
+    public static final int BLOCK_SIZE = 128;
+    public static final int LANES = 4;
+    private static final int VALUES_PER_LANE = BLOCK_SIZE / LANES;
+    // header, low bits of 32 bits, positions and high bits of all values
+    private static final int MAX_BLOCK_WORDS = 1 + LANES * 32 + BLOCK_SIZE / 4 + BLOCK_SIZE;
+
+    private int size;
+    private int[] data;
+    private int dataLength;
+
+    @Override
+    public void encode(int[] values) {
+        long startTime = System.currentTimeMillis();
+        size = values.length;
+        int numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        data = new int[Math.max(numBlocks * (BLOCK_SIZE / 2 + 1), 1)];
+        dataLength = 0;
+        int[] block = new int[BLOCK_SIZE];
+        int[] masked = new int[BLOCK_SIZE];
+        int[] bitsCount = new int[33];
+        for (int from = 0; from < size; from += BLOCK_SIZE) {
+            int to = Math.min(from + BLOCK_SIZE, size);
+            toDeltas(values, from, to, from == 0 ? 0 : values[from - 1], block);
+            ensureCapacity(dataLength + MAX_BLOCK_WORDS);
+            dataLength += encodeBlock(block, data, dataLength, masked, bitsCount);
+        }
+        LOG.debug(String.format("PForDelta encoding for %d values cost %d ms, %f bits per key",
+                size, System.currentTimeMillis() - startTime, 32.0 * dataLength / Math.max(size, 1)));
+    }
+
+    @Override
+    public int[] decode() {
+        int[] res = new int[size];
+        int[] block = new int[BLOCK_SIZE];
+        int offset = 0, prev = 0;
+        for (int from = 0; from < size; from += BLOCK_SIZE) {
+            int to = Math.min(from + BLOCK_SIZE, size);
+            offset += decodeBlock(data, offset, block);
+            prev = fromDeltas(block, res, from, to, prev);
+        }
+        return res;
+    }
+
+    /**
+     * Layout: [size][blocks], blocks are written word by word
+     */
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        dst.putInt(to - from);
+        int[] block = new int[BLOCK_SIZE];
+        int[] masked = new int[BLOCK_SIZE];
+        int[] bitsCount = new int[33];
+        int[] words = new int[MAX_BLOCK_WORDS];
+        for (int blockFrom = from; blockFrom < to; blockFrom += BLOCK_SIZE) {
+            int blockTo = Math.min(blockFrom + BLOCK_SIZE, to);
+            toDeltas(src, blockFrom, blockTo, blockFrom == from ? 0 : src[blockFrom - 1], block);
+            int numWords = encodeBlock(block, words, 0, masked, bitsCount);
+            for (int i = 0; i < numWords; i++)
+                dst.putInt(words[i]);
+            Arrays.fill(words, 0, numWords, 0);
+        }
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        int[] block = new int[BLOCK_SIZE];
+        int[] words = new int[MAX_BLOCK_WORDS];
+        int prev = 0;
+        for (int from = offset; from < offset + n; from += BLOCK_SIZE) {
+            int to = Math.min(from + BLOCK_SIZE, offset + n);
+            int header = src.getInt(src.position());
+            int numWords = blockWords(header & 0xff, (header >>> 8) & 0xff, (header >>> 16) & 0xff);
+            for (int i = 0; i < numWords; i++)
+                words[i] = src.getInt();
+            decodeBlock(words, 0, block);
+            prev = fromDeltas(block, dst, from, to, prev);
+        }
+        return n;
+    }
+
+    /**
+     * Compute deltas of values[from, to) into a block, pad the last block with zeros
+     */
+    private static void toDeltas(int[] values, int from, int to, int prev, int[] block) {
+        for (int i = from; i < to; i++) {
+            int delta = values[i] - prev;
+            if (delta < 0)
+                throw new SketchMLException("Input of PForDeltaEncoder should be sorted");
+            block[i - from] = delta;
+            prev = values[i];
+        }
+        Arrays.fill(block, to - from, BLOCK_SIZE, 0);
+    }
+
+    /**
+     * Prefix sum of deltas into res[from, to)
+     */
+    private static int fromDeltas(int[] block, int[] res, int from, int to, int prev) {
+        for (int i = from; i < to; i++) {
+            prev += block[i - from];
+            res[i] = prev;
+        }
+        return prev;
+    }
+
+    private static int blockWords(int b, int numExceptions, int exceptionBits) {
+        return 1 + LANES * b + (numExceptions + 3) / 4 + (numExceptions * exceptionBits + 31) / 32;
+    }
+
+    /**
+     * Encode one block of deltas into `out`, which should be zeros from `outOffset`
+     *
+     * @return number of words written
+     */
+    private static int encodeBlock(int[] block, int[] out, int outOffset, int[] masked, int[] bitsCount) {
+        // 1. choose the bit width with minimal cost
+        Arrays.fill(bitsCount, 0);
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            bitsCount[32 - Integer.numberOfLeadingZeros(block[i])]++;
+        int maxBits = 32;
+        while (maxBits > 0 && bitsCount[maxBits] == 0) maxBits--;
+        int b = maxBits, numExceptions = 0;
+        long bestCost = (long) BLOCK_SIZE * maxBits;
+        for (int t = maxBits - 1, exceed = 0; t >= 0; t--) {
+            exceed += bitsCount[t + 1];
+            long cost = (long) BLOCK_SIZE * t + (long) exceed * (8 + maxBits - t);
+            if (cost < bestCost) {
+                bestCost = cost;
+                b = t;
+                numExceptions = exceed;
+            }
+        }
+        int exceptionBits = maxBits - b;
+        // 2. write header and pack low bits
+        int offset = outOffset;
+        out[offset++] = b | (numExceptions << 8) | (exceptionBits << 16);
+        int mask = b == 32 ? -1 : (1 << b) - 1;
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            masked[i] = block[i] & mask;
+        pack(masked, out, offset, b);
+        offset += LANES * b;
+        // 3. write exceptions
+        if (numExceptions > 0) {
+            int highOffset = offset + (numExceptions + 3) / 4;
+            for (int i = 0, cnt = 0; i < BLOCK_SIZE; i++) {
+                if ((block[i] >>> b) != 0) {
+                    out[offset + (cnt >> 2)] |= i << ((cnt & 3) << 3);
+                    writeBits(out, highOffset, cnt * exceptionBits, block[i] >>> b, exceptionBits);
+                    cnt++;
+                }
+            }
+        }
+        return blockWords(b, numExceptions, exceptionBits);
+    }
+
+    /**
+     * Decode one block of deltas from `in`
+     *
+     * @return number of words read
+     */
+    private static int decodeBlock(int[] in, int inOffset, int[] block) {
+        int header = in[inOffset];
+        int b = header & 0xff;
+        int numExceptions = (header >>> 8) & 0xff;
+        int exceptionBits = (header >>> 16) & 0xff;
+        int offset = inOffset + 1;
+        // 1. unpack low bits
+        unpack(in, offset, block, b);
+        offset += LANES * b;
+        // 2. patch exceptions
+        if (numExceptions > 0) {
+            int highOffset = offset + (numExceptions + 3) / 4;
+            for (int cnt = 0; cnt < numExceptions; cnt++) {
+                int pos = (in[offset + (cnt >> 2)] >>> ((cnt & 3) << 3)) & 0xff;
+                block[pos] |= readBits(in, highOffset, cnt * exceptionBits, exceptionBits) << b;
+            }
+        }
+        return blockWords(b, numExceptions, exceptionBits);
+    }
+
+    /**
+     * Pack `BLOCK_SIZE` values of `b` bits into `LANES * b` words,
+     * value `k * LANES + l` is the k-th value of lane l
+     */
+    private static void pack(int[] in, int[] out, int outOffset, int b) {
+        if (b == 0) return;
+        for (int k = 0; k < VALUES_PER_LANE; k++) {
+            int bitPos = k * b;
+            int shift = bitPos & 31;
+            int word = outOffset + (bitPos >>> 5) * LANES;
+            int inOffset = k * LANES;
+            for (int l = 0; l < LANES; l++)
+                out[word + l] |= in[inOffset + l] << shift;
+            if (shift + b > 32) {
+                for (int l = 0; l < LANES; l++)
+                    out[word + LANES + l] |= in[inOffset + l] >>> (32 - shift);
+            }
+        }
+    }
+
+    private static void unpack(int[] in, int inOffset, int[] out, int b) {
+        if (b == 0) {
+            Arrays.fill(out, 0);
+            return;
+        }
+        int mask = b == 32 ? -1 : (1 << b) - 1;
+        for (int k = 0; k < VALUES_PER_LANE; k++) {
+            int bitPos = k * b;
+            int shift = bitPos & 31;
+            int word = inOffset + (bitPos >>> 5) * LANES;
+            int outOffset = k * LANES;
+            if (shift + b > 32) {
+                for (int l = 0; l < LANES; l++)
+                    out[outOffset + l] = ((in[word + l] >>> shift)
+                            | (in[word + LANES + l] << (32 - shift))) & mask;
+            } else {
+                for (int l = 0; l < LANES; l++)
+                    out[outOffset + l] = (in[word + l] >>> shift) & mask;
+            }
+        }
+    }
+
+    private static void writeBits(int[] out, int wordOffset, int bitPos, int value, int numBits) {
+        if (numBits == 0) return;
+        int word = wordOffset + (bitPos >>> 5);
+        int shift = bitPos & 31;
+        out[word] |= value << shift;
+        if (shift + numBits > 32)
+            out[word + 1] |= value >>> (32 - shift);
+    }
+
+    private static int readBits(int[] in, int wordOffset, int bitPos, int numBits) {
+        if (numBits == 0) return 0;
+        int word = wordOffset + (bitPos >>> 5);
+        int shift = bitPos & 31;
+        int mask = numBits == 32 ? -1 : (1 << numBits) - 1;
+        int res = in[word] >>> shift;
+        if (shift + numBits > 32)
+            res |= in[word + 1] << (32 - shift);
+        return res & mask;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (data.length < capacity)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, capacity));
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.PFOR_DELTA;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        dst.putInt(dataLength);
+        for (int i = 0; i < dataLength; i++)
+            dst.putInt(data[i]);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        size = src.getInt();
+        dataLength = src.getInt();
+        data = new int[dataLength];
+        for (int i = 0; i < dataLength; i++)
+            data[i] = src.getInt();
+    }
+
+    @Override
+    public int serializedSize() {
+        return 8 + 4 * dataLength;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.writeInt(size);
+        oos.writeInt(dataLength);
+        for (int i = 0; i < dataLength; i++)
+            oos.writeInt(data[i]);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        size = ois.readInt();
+        dataLength = ois.readInt();
+        data = new int[dataLength];
+        for (int i = 0; i < dataLength; i++)
+            data[i] = ois.readInt();
+    }
+}
@@ -0,0 +1,360 @@
+package org.dma.sketchml.sketch.binary;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Interleaved rANS (range asymmetric numeral systems) encoder with a static
+ * frequency table, in the style of ryg_rans.
+ *
+ * Occurrences of symbols are normalized to sum up to 2^scaleBits. Values are
+ * encoded in reverse order into `NUM_STATES` interleaved 32-bit states sharing
+ * one byte stream, so that the decoder runs forward and independent states
+ * can be updated without waiting for each other. Unlike Huffman coding,
+ * it does not waste a fraction of bit per symbol on skewed distributions.
+ */
+public class RANSEncoder implements BinaryEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(RANSEncoder.class);
+
+    public static final int NUM_STATES = 4;
+    public static final int MIN_SCALE_BITS = 12;
+    public static final int MAX_SCALE_BITS = 20;
+    // distinct values a frequency table of `MAX_SCALE_BITS` can hold
+    public static final int MAX_SYMBOL_NUM = 1 << (MAX_SCALE_BITS - 2);
+    // lower bound of the normalized state interval [RANS_L, RANS_L << 8)
+    private static final int RANS_L = 1 << 23;
+
+    private int size;
+    private int scaleBits;
+    private int[] symbols;  // sorted distinct values
+    private int[] freqs;    // normalized frequency of each symbol
+    private byte[] data;
+
+    @Override
+    public void encode(int[] values) {
+        long startTime = System.currentTimeMillis();
+        size = values.length;
+        // 1. build frequency table
+        buildTable(values, 0, size);
+        // 2. encode values into a temporary buffer
+        ByteBuffer buf = ByteBuffer.wrap(new byte[maxEncodedBytes(size)]);
+        int ptr = encodeBackward(values, 0, size, buf, buf.capacity());
+        data = Arrays.copyOfRange(buf.array(), ptr, buf.capacity());
+        LOG.debug(String.format("rANS encoding for %d values cost %d ms, %d symbols, %f bits per value",
+                size, System.currentTimeMillis() - startTime, symbols.length, 8.0 * data.length / Math.max(size, 1)));
+    }
+
+    @Override
+    public int[] decode() {
+        int[] res = new int[size];
+        decodeForward(ByteBuffer.wrap(data), res, 0, size);
+        return res;
+    }
+
+    /**
+     * Layout: [size][scaleBits][number of symbols][symbols][frequencies][length of stream][stream]
+     */
+    @Override
+    public void encodeTo(int[] src, int from, int to, ByteBuffer dst) {
+        int n = to - from;
+        RANSEncoder table = new RANSEncoder();
+        table.buildTable(src, from, to);
+        // 1. write frequency table
+        dst.putInt(n);
+        dst.put((byte) table.scaleBits);
+        dst.putInt(table.symbols.length);
+        for (int symbol : table.symbols)
+            dst.putInt(symbol);
+        for (int freq : table.freqs) {
+            if (table.scaleBits <= 16)
+                dst.putShort((short) (freq - 1));
+            else
+                dst.putInt(freq);
+        }
+        // 2. encode backwards into the tail of the free space and move it forward,
+        //    or into a temporary buffer if the free space is not enough
+        int lengthPos = dst.position();
+        int start = lengthPos + 4;
+        int bound = table.maxEncodedBytes(n);
+        int length;
+        if (dst.remaining() - 4 >= bound) {
+            int ptr = table.encodeBackward(src, from, to, dst, start + bound);
+            length = start + bound - ptr;
+            for (int i = 0; i < length; i++)
+                dst.put(start + i, dst.get(ptr + i));
+            dst.putInt(length);
+            dst.position(start + length);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(new byte[bound]);
+            int ptr = table.encodeBackward(src, from, to, buf, bound);
+            length = bound - ptr;
+            dst.putInt(length);
+            dst.put(buf.array(), ptr, length);
+        }
+    }
+
+    @Override
+    public int decodeInto(ByteBuffer src, int[] dst, int offset) {
+        int n = src.getInt();
+        RANSEncoder table = new RANSEncoder();
+        table.scaleBits = src.get();
+        int numSymbols = src.getInt();
+        table.symbols = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            table.symbols[i] = src.getInt();
+        table.freqs = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            table.freqs[i] = table.scaleBits <= 16 ? (src.getShort() & 0xffff) + 1 : src.getInt();
+        int length = src.getInt();
+        int end = src.position() + length;
+        table.decodeForward(src, dst, offset, n);
+        src.position(end);
+        return n;
+    }
+
+    private void buildTable(int[] values, int from, int to) {
+        HuffmanCodebook.Histogram hist = HuffmanCodebook.Histogram.count(values, from, to);
+        symbols = hist.symbols;
+        int numSymbols = symbols.length;
+        int symbolBits = 32 - Integer.numberOfLeadingZeros(Math.max(numSymbols - 1, 1));
+        scaleBits = Math.min(MAX_SCALE_BITS, Math.max(MIN_SCALE_BITS, symbolBits + 4));
+        if (symbolBits + 2 > scaleBits)
+            throw new SketchMLException("Too many distinct values for RANSEncoder: " + numSymbols);
+        freqs = normalize(hist.counts, hist.total, scaleBits);
+    }
+
+    private int maxEncodedBytes(int n) {
+        return (int) (((long) n * (scaleBits + 1) + 7) / 8) + 8 * NUM_STATES;
+    }
+
+    /**
+     * Encode values[from, to) in reverse order, the byte stream grows backwards from `end`
+     *
+     * @return start index of the byte stream
+     */
+    private int encodeBackward(int[] values, int from, int to, ByteBuffer out, int end) {
+        int[] cumFreqs = cumulate(freqs);
+        // value --> index of symbol, flat array if dense, otherwise hash map
+        int base = symbols.length == 0 ? 0 : symbols[0];
+        int[] denseIndex = null;
+        Int2IntOpenHashMap sparseIndex = null;
+        if (symbols.length > 0 && (long) symbols[symbols.length - 1] - base < HuffmanCodebook.DENSE_RANGE_LIMIT) {
+            denseIndex = new int[symbols[symbols.length - 1] - base + 1];
+            for (int k = 0; k < symbols.length; k++)
+                denseIndex[symbols[k] - base] = k;
+        } else {
+            sparseIndex = new Int2IntOpenHashMap(symbols.length);
+            for (int k = 0; k < symbols.length; k++)
+                sparseIndex.put(symbols[k], k);
+        }
+        // encode values
+        int ptr = end;
+        int[] states = new int[NUM_STATES];
+        Arrays.fill(states, RANS_L);
+        long xMaxBase = (long) (RANS_L >>> scaleBits) << 8;
+        for (int i = to - 1; i >= from; i--) {
+            int k = denseIndex != null ? denseIndex[values[i] - base] : sparseIndex.get(values[i]);
+            int f = freqs[k];
+            int s = (i - from) & (NUM_STATES - 1);
+            int x = states[s];
+            long xMax = xMaxBase * f;
+            while (x >= xMax) {
+                out.put(--ptr, (byte) x);
+                x >>>= 8;
+            }
+            states[s] = ((x / f) << scaleBits) + (x % f) + cumFreqs[k];
+        }
+        // flush states, state 0 goes first
+        for (int s = NUM_STATES - 1; s >= 0; s--) {
+            int x = states[s];
+            for (int j = 0; j < 4; j++) {
+                out.put(--ptr, (byte) x);
+                x >>>= 8;
+            }
+        }
+        return ptr;
+    }
+
+    /**
+     * Decode `n` values from the current position of `in` into dst[offset, offset + n)
+     */
+    private void decodeForward(ByteBuffer in, int[] dst, int offset, int n) {
+        if (n == 0)
+            return;
+        // 1. build slot --> symbol table
+        int mask = (1 << scaleBits) - 1;
+        int[] cumFreqs = cumulate(freqs);
+        int[] slots = new int[1 << scaleBits];
+        for (int k = 0; k < freqs.length; k++)
+            Arrays.fill(slots, cumFreqs[k], cumFreqs[k] + freqs[k], k);
+        // 2. read states
+        int[] states = new int[NUM_STATES];
+        for (int s = 0; s < NUM_STATES; s++)
+            for (int j = 0; j < 4; j++)
+                states[s] = (states[s] << 8) | (in.get() & 0xff);
+        // 3. decode values in order, the state of each value is independent
+        //    from its neighbours, so we keep states in locals
+        int x0 = states[0], x1 = states[1], x2 = states[2], x3 = states[3];
+        int i = offset, to = offset + n;
+        for (; i + NUM_STATES <= to; i += NUM_STATES) {
+            int k0 = slots[x0 & mask], k1 = slots[x1 & mask];
+            int k2 = slots[x2 & mask], k3 = slots[x3 & mask];
+            dst[i] = symbols[k0];
+            dst[i + 1] = symbols[k1];
+            dst[i + 2] = symbols[k2];
+            dst[i + 3] = symbols[k3];
+            x0 = freqs[k0] * (x0 >>> scaleBits) + (x0 & mask) - cumFreqs[k0];
+            x1 = freqs[k1] * (x1 >>> scaleBits) + (x1 & mask) - cumFreqs[k1];
+            x2 = freqs[k2] * (x2 >>> scaleBits) + (x2 & mask) - cumFreqs[k2];
+            x3 = freqs[k3] * (x3 >>> scaleBits) + (x3 & mask) - cumFreqs[k3];
+            while (x0 < RANS_L) x0 = (x0 << 8) | (in.get() & 0xff);
+            while (x1 < RANS_L) x1 = (x1 << 8) | (in.get() & 0xff);
+            while (x2 < RANS_L) x2 = (x2 << 8) | (in.get() & 0xff);
+            while (x3 < RANS_L) x3 = (x3 << 8) | (in.get() & 0xff);
+        }
+        // 4. tail
+        states[0] = x0;
+        states[1] = x1;
+        states[2] = x2;
+        states[3] = x3;
+        for (; i < to; i++) {
+            int s = (i - offset) & (NUM_STATES - 1);
+            int x = states[s];
+            int k = slots[x & mask];
+            dst[i] = symbols[k];
+            x = freqs[k] * (x >>> scaleBits) + (x & mask) - cumFreqs[k];
+            while (x < RANS_L)
+                x = (x << 8) | (in.get() & 0xff);
+            states[s] = x;
+        }
+    }
+
+    /**
+     * Scale occurrences to frequencies summing up to 2^scaleBits with the
+     * largest remainder method, every symbol gets a frequency of at least 1
+     */
+    private static int[] normalize(long[] counts, long total, int scaleBits) {
+        int numSymbols = counts.length;
+        int[] freqs = new int[numSymbols];
+        long[] remainders = new long[numSymbols];
+        long sum = 0;
+        for (int i = 0; i < numSymbols; i++) {
+            long scaled = counts[i] << scaleBits;
+            freqs[i] = (int) Math.max(1L, scaled / total);
+            // remainders are less than `total`, which fits in 32 bits
+            remainders[i] = (scaled / total == 0 ? 0 : scaled % total) << 32 | i;
+            sum += freqs[i];
+        }
+        long diff = (1L << scaleBits) - sum;
+        if (numSymbols == 0) {
+            return freqs;
+        } else if (diff > 0) {
+            // round up the symbols with largest remainders
+            Arrays.sort(remainders);
+            for (int j = numSymbols - 1; diff > 0; j--, diff--)
+                freqs[(int) remainders[j]]++;
+        } else if (diff < 0) {
+            // take the excess from the most frequent symbols
+            long[] order = new long[numSymbols];
+            for (int i = 0; i < numSymbols; i++)
+                order[i] = ((long) freqs[i] << 32) | i;
+            Arrays.sort(order);
+            for (int j = numSymbols - 1; j >= 0 && diff < 0; j--) {
+                int idx = (int) order[j];
+                int take = (int) Math.min(-diff, freqs[idx] - 1);
+                freqs[idx] -= take;
+                diff += take;
+            }
+        }
+        return freqs;
+    }
+
+    private static int[] cumulate(int[] freqs) {
+        int[] cumFreqs = new int[freqs.length];
+        for (int i = 1; i < freqs.length; i++)
+            cumFreqs[i] = cumFreqs[i - 1] + freqs[i - 1];
+        return cumFreqs;
+    }
+
+    @Override
+    public EncoderType encoderType() {
+        return EncoderType.RANS;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        dst.put((byte) scaleBits);
+        dst.putInt(symbols.length);
+        for (int symbol : symbols)
+            dst.putInt(symbol);
+        for (int freq : freqs) {
+            if (scaleBits <= 16)
+                dst.putShort((short) (freq - 1));
+            else
+                dst.putInt(freq);
+        }
+        dst.putInt(data.length);
+        dst.put(data);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        size = src.getInt();
+        scaleBits = src.get();
+        int numSymbols = src.getInt();
+        symbols = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            symbols[i] = src.getInt();
+        freqs = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            freqs[i] = scaleBits <= 16 ? (src.getShort() & 0xffff) + 1 : src.getInt();
+        data = new byte[src.getInt()];
+        src.get(data);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 13 + symbols.length * (scaleBits <= 16 ? 6 : 8) + data.length;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        oos.writeInt(size);
+        oos.writeByte(scaleBits);
+        oos.writeInt(symbols.length);
+        for (int symbol : symbols)
+            oos.writeInt(symbol);
+        // frequencies are no more than 2^16 when scaleBits <= 16
+        for (int freq : freqs) {
+            if (scaleBits <= 16)
+                oos.writeShort(freq - 1);
+            else
+                oos.writeInt(freq);
+        }
+        oos.writeInt(data.length);
+        oos.write(data);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        size = ois.readInt();
+        scaleBits = ois.readByte();
+        int numSymbols = ois.readInt();
+        symbols = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            symbols[i] = ois.readInt();
+        freqs = new int[numSymbols];
+        for (int i = 0; i < numSymbols; i++)
+            freqs[i] = scaleBits <= 16 ? ois.readUnsignedShort() + 1 : ois.readInt();
+        data = new byte[ois.readInt()];
+        ois.readFully(data);
+    }
+}
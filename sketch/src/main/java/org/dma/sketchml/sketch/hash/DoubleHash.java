@@ -0,0 +1,66 @@
+package org.dma.sketchml.sketch.hash;
+
+import java.io.Serializable;
+
+/**
+ * Seeded family of hash functions onto [0, size) by double hashing (Kirsch and
+ * Mitzenmacher, 2006). A key is mixed into 64 bits once, whose high and low
+ * halves serve as `h1` and `h2`, and the i-th function is `h1 + i * h2`. It is
+ * reduced to the range by Lemire's multiply-shift instead of a modulo.
+ *
+ * Any number of functions can be derived, and the seed identifies all of them.
+ */
+public final class DoubleHash implements Serializable {
+    private final long seed;
+    private final int size;
+
+    public DoubleHash(long seed, int size) {
+        this.seed = seed;
+        this.size = size;
+    }
+
+    /**
+     * Finalizer of SplitMix64 on the seeded key, which is a bijection so that
+     * distinct keys never share both halves
+     */
+    public long mix(int key) {
+        long z = (key & 0xffffffffL) + seed;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the i-th hash code of a key from its mix
+     */
+    public int hash(long mix, int i) {
+        return reduce(code(mix, i), size);
+    }
+
+    /**
+     * @return the i-th 32-bit code of a key from its mix, before range reduction
+     */
+    public static int code(long mix, int i) {
+        // h2 is odd so that it is co-prime with 2^32
+        return (int) (mix >>> 32) + i * ((int) mix | 1);
+    }
+
+    /**
+     * Map a 32-bit code onto [0, range) by its high bits
+     */
+    public static int reduce(int code, int range) {
+        return (int) (((code & 0xffffffffL) * range) >>> 32);
+    }
+
+    public int hash(int key, int i) {
+        return hash(mix(key), i);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
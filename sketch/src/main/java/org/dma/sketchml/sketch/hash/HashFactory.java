@@ -36,4 +36,26 @@ public class HashFactory {
             return res;
         }
     }
+
+    /**
+     * @return index of `hash` among the available hash functions, which
+     * identifies it together with its size in the compact serialization
+     */
+    public static int indexOf(Int2IntHash hash) {
+        for (int i = 0; i < int2intHashes.length; i++) {
+            if (int2intHashes[i].getClass() == hash.getClass()
+                    && (!(hash instanceof BKDRHash) || ((BKDRHash) int2intHashes[i]).getSeed()
+                    == ((BKDRHash) hash).getSeed()))
+                return i;
+        }
+        throw new SketchMLException("Unrecognizable hash function: " + hash.getClass().getName());
+    }
+
+    public static Int2IntHash getInt2IntHash(int index, int size) {
+        if (index < 0 || index >= int2intHashes.length)
+            throw new SketchMLException("Unrecognizable hash function index: " + index);
+        Int2IntHash res = int2intHashes[index].clone();
+        res.setSize(size);
+        return res;
+    }
 }
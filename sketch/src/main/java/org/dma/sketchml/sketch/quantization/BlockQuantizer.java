@@ -0,0 +1,237 @@
+package org.dma.sketchml.sketch.quantization;
+
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.base.Quantizer;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.dma.sketchml.sketch.base.ValueArray;
+import org.dma.sketchml.sketch.common.Constants;
+import org.dma.sketchml.sketch.util.Maths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Quantizer of dense vectors in fixed-size blocks, each of which has its own
+ * small codebook of `binNum` values, so that a few large-magnitude regions do
+ * not waste the bins of the others.
+ *
+ * Bin edges of a block are its exact quantiles, and the value of a bin is the
+ * mean of values falling into it. Codebooks are stored in floats, and bins are
+ * packed into `ceil(log2(binNum))` bits each.
+ */
+public class BlockQuantizer extends Quantizer {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockQuantizer.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_BLOCK_BIN_NUM = 16;
+
+    private int blockSize;
+    private float[] codebooks;  // values of bins in all blocks, `binNum` for each block
+
+    public BlockQuantizer(int binNum, int blockSize) {
+        super(binNum);
+        if (binNum < 2 || blockSize < 1)
+            throw new SketchMLException(String.format(
+                    "Invalid bin num or block size: %d, %d", binNum, blockSize));
+        this.blockSize = blockSize;
+        // there is no common zero bin among blocks, so runs are not encoded
+        this.zeroIdx = -1;
+    }
+
+    public BlockQuantizer(int binNum) {
+        this(binNum, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockQuantizer() {
+        this(DEFAULT_BLOCK_BIN_NUM);
+    }
+
+    @Override
+    public void quantize(ValueArray values) {
+        long startTime = System.currentTimeMillis();
+        n = values.length();
+        int blockNum = initBlocks();
+        double[] range = quantizeBlocks(values, 0, blockNum);
+        min = range[0];
+        max = range[1];
+        LOG.debug(String.format("Block quantization for %d items in %d blocks cost %d ms",
+                n, blockNum, System.currentTimeMillis() - startTime));
+    }
+
+    @Override
+    public void parallelQuantize(ValueArray values) throws InterruptedException, ExecutionException {
+        long startTime = System.currentTimeMillis();
+        n = values.length();
+        int blockNum = initBlocks();
+        // each thread quantizes a contiguous range of blocks
+        int threadNum = Constants.Parallel.getParallelism();
+        ExecutorService threadPool = Constants.Parallel.getThreadPool();
+        Future<double[]>[] futures = new Future[threadNum];
+        for (int i = 0; i < threadNum; i++) {
+            int threadId = i;
+            futures[threadId] = threadPool.submit(new Callable<double[]>() {
+                @Override
+                public double[] call() throws Exception {
+                    int blockPerThread = blockNum / threadNum;
+                    int from = threadId * blockPerThread;
+                    int to = threadId + 1 == threadNum ? blockNum : from + blockPerThread;
+                    return quantizeBlocks(values, from, to);
+                }
+            });
+        }
+        mergeRanges(futures);
+        LOG.debug(String.format("Block quantization for %d items in %d blocks cost %d ms",
+                n, blockNum, System.currentTimeMillis() - startTime));
+    }
+
+    private int initBlocks() {
+        int blockNum = (n + blockSize - 1) / blockSize;
+        codebooks = new float[blockNum * binNum];
+        bins = BinArray.allocate(n, binNum - 1);
+        binEncoder = null;
+        return blockNum;
+    }
+
+    private void mergeRanges(Future<double[]>[] futures) throws InterruptedException, ExecutionException {
+        min = Double.MAX_VALUE;
+        max = -Double.MAX_VALUE;
+        for (Future<double[]> future : futures) {
+            double[] range = future.get();
+            min = Math.min(min, range[0]);
+            max = Math.max(max, range[1]);
+        }
+    }
+
+    /**
+     * @return min and max of values in blocks [from, to)
+     */
+    private double[] quantizeBlocks(ValueArray values, int from, int to) {
+        double[] block = new double[blockSize];
+        double[] sorted = new double[blockSize];
+        double[] blockSplits = new double[binNum - 1];
+        double[] range = {Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int blockId = from; blockId < to; blockId++) {
+            int offset = blockId * blockSize;
+            int len = Math.min(blockSize, n - offset);
+            values.copyTo(offset, offset + len, block, 0);
+            quantizeBlock(blockId, block, len, sorted, blockSplits, range);
+        }
+        return range;
+    }
+
+    private void quantizeBlock(int blockId, double[] block, int len, double[] sorted,
+                               double[] blockSplits, double[] range) {
+        // 1. exact quantiles of the block as bin edges
+        System.arraycopy(block, 0, sorted, 0, len);
+        Arrays.sort(sorted, 0, len);
+        int splitNum = binNum - 1;
+        for (int i = 0; i < splitNum; i++)
+            blockSplits[i] = sorted[(int) ((long) (i + 1) * len / binNum)];
+        range[0] = Math.min(range[0], sorted[0]);
+        range[1] = Math.max(range[1], sorted[len - 1]);
+        // 2. mean of each bin as its value, bins are contiguous in sorted values
+        int codeOffset = blockId * binNum;
+        int bin = 0, cnt = 0;
+        double sum = 0.0;
+        for (int i = 0; i < len; i++) {
+            while (bin < splitNum && sorted[i] >= blockSplits[bin]) {
+                codebooks[codeOffset + bin++] = cnt == 0 ? 0.0f : (float) (sum / cnt);
+                sum = 0.0;
+                cnt = 0;
+            }
+            sum += sorted[i];
+            cnt++;
+        }
+        codebooks[codeOffset + bin] = cnt == 0 ? 0.0f : (float) (sum / cnt);
+        // 3. find index of each value
+        int offset = blockId * blockSize;
+        for (int i = 0; i < len; i++)
+            bins.set(offset + i, Maths.upperBound(blockSplits, splitNum, block[i]));
+    }
+
+    /**
+     * Bin values differ among blocks, use `dequantize` instead
+     */
+    @Override
+    public double[] getValues() {
+        throw new SketchMLException("Bin values of BlockQuantizer differ among blocks");
+    }
+
+    @Override
+    public double[] dequantize() {
+        double[] res = new double[n];
+        for (int i = 0; i < n; i++)
+            res[i] = codebooks[(i / blockSize) * binNum + bins.get(i)];
+        return res;
+    }
+
+    @Override
+    public void timesBy(double x) {
+        min *= x;
+        max *= x;
+        for (int i = 0; i < codebooks.length; i++)
+            codebooks[i] *= x;
+    }
+
+    @Override
+    public void setStochastic(boolean stochastic) {
+        if (stochastic)
+            throw new SketchMLException("Stochastic rounding is not supported by BlockQuantizer");
+    }
+
+    @Override
+    public QuantizationType quantizationType() {
+        return QuantizationType.BLOCK;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public float[] getCodebooks() {
+        return codebooks;
+    }
+
+    /**
+     * Layout: [binNum][n][blockSize][codebooks][min][max][encoded bins]
+     */
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(binNum);
+        dst.putInt(n);
+        dst.putInt(blockSize);
+        for (float value : codebooks)
+            dst.putFloat(value);
+        dst.putDouble(min);
+        dst.putDouble(max);
+        BinaryEncoder.writeEncoder(getBinEncoder(), dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        binNum = src.getInt();
+        n = src.getInt();
+        blockSize = src.getInt();
+        codebooks = new float[(n + blockSize - 1) / blockSize * binNum];
+        for (int i = 0; i < codebooks.length; i++)
+            codebooks[i] = src.getFloat();
+        min = src.getDouble();
+        max = src.getDouble();
+        zeroIdx = -1;
+        binEncoder = BinaryEncoder.readEncoder(src);
+        binEncoderType = binEncoder.encoderType();
+        bins = binEncoder.decodeBins(binNum - 1);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 28 + 4 * codebooks.length + BinaryEncoder.encoderSize(getBinEncoder());
+    }
+}
@@ -0,0 +1,46 @@
+package org.dma.sketchml.sketch.quantization;
+
+import org.dma.sketchml.sketch.base.BinLookup;
+
+/**
+ * Branch-free search over splits stored in Eytzinger (BFS) layout.
+ *
+ * The tree is padded to a complete one with +Inf, so that each lookup takes
+ * exactly `depth` steps, and each step is a comparison turned into an index
+ * without a branch. The top levels of the tree share a few cache lines.
+ */
+public class EytzingerLookup implements BinLookup {
+    private final double[] tree;    // 1-based, tree[k] has children tree[2k] and tree[2k+1]
+    private final int[] ranks;      // index of tree[k] in splits
+    private final int depth;
+    private final int splitNum;
+
+    public EytzingerLookup(double[] splits) {
+        this.splitNum = splits.length;
+        this.depth = 32 - Integer.numberOfLeadingZeros(splitNum);
+        int size = (1 << depth) - 1;
+        this.tree = new double[size + 1];
+        this.ranks = new int[size + 1];
+        build(splits, 1, 0);
+    }
+
+    private int build(double[] splits, int k, int i) {
+        if (k < tree.length) {
+            i = build(splits, 2 * k, i);
+            tree[k] = i < splitNum ? splits[i] : Double.POSITIVE_INFINITY;
+            ranks[k] = i++;
+            i = build(splits, 2 * k + 1, i);
+        }
+        return i;
+    }
+
+    @Override
+    public int indexOf(double x) {
+        int k = 1;
+        for (int i = 0; i < depth; i++)
+            k = 2 * k + (tree[k] <= x ? 1 : 0);
+        // go up to the last node where it turns left, which is the first split larger than x
+        k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+        return k == 0 ? splitNum : Math.min(ranks[k], splitNum);
+    }
+}
@@ -1,8 +1,9 @@
 package org.dma.sketchml.sketch.quantization;
 
+import org.dma.sketchml.sketch.base.QuantileSketch;
 import org.dma.sketchml.sketch.base.Quantizer;
+import org.dma.sketchml.sketch.base.ValueArray;
 import org.dma.sketchml.sketch.common.Constants;
-import org.dma.sketchml.sketch.sketch.quantile.HeapQuantileSketch;
 import org.dma.sketchml.sketch.util.Maths;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,8 +16,33 @@ import java.util.concurrent.Future;
 public class QuantileQuantizer extends Quantizer {
     private static final Logger LOG = LoggerFactory.getLogger(QuantileQuantizer.class);
 
-    public QuantileQuantizer(int binNum) {
+    public static final QuantileSketch.SketchType DEFAULT_SKETCH_TYPE = QuantileSketch.SketchType.HEAP;
+
+    private QuantileSketch.SketchType sketchType; // only used when quantizing
+
+    private int targetBinNum; // bin num before duplicated splits are dropped
+
+    public static final double DEFAULT_DRIFT_THRESHOLD = 0.05;
+    private static final int SAMPLE_SIZE = 4096;
+    // splits of last call are reused if the drift is no more than it, non-positive to disable
+    private double driftThreshold;
+    // fractions of sampled values below each split when splits were built
+    private transient double[] sampleCdf;
+
+    public static final int DEFAULT_MIN_BIN_NUM = 4;
+    // bin num is chosen in each call as the smallest one, up to `targetBinNum`, whose
+    // relative error is no more than it, non-positive to disable
+    private double targetError;
+    private int minBinNum = DEFAULT_MIN_BIN_NUM;
+
+    public QuantileQuantizer(int binNum, QuantileSketch.SketchType sketchType) {
         super(binNum);
+        this.targetBinNum = binNum;
+        this.sketchType = sketchType;
+    }
+
+    public QuantileQuantizer(int binNum) {
+        this(binNum, DEFAULT_SKETCH_TYPE);
     }
 
     public QuantileQuantizer() {
@@ -24,23 +50,24 @@ public class QuantileQuantizer extends Quantizer {
     }
 
     @Override
-    public void quantize(double[] values) {
+    public void quantize(ValueArray values) {
         long startTime = System.currentTimeMillis();
-        // 1. create quantile sketch summary
-        n = values.length;
-        HeapQuantileSketch qSketch = new HeapQuantileSketch((long) n);
-        for (double v : values) {
-            qSketch.update(v);
+        n = values.length();
+        if (canReuseSplits(values)) {
+            warmQuantize(values);
+            quantizeToBins(values);
+            LOG.debug(String.format("Warm-started quantile quantization for %d items cost %d ms",
+                    n, System.currentTimeMillis() - startTime));
+            return;
         }
-        min = qSketch.getMinValue();
-        max = qSketch.getMaxValue();
+        // 1. create quantile sketch summary
+        QuantileSketch qSketch = QuantileSketch.newSketch(sketchType, (long) n);
+        qSketch.update(values, 0, n);
         // 2. query quantiles, set them as bin edges
-        splits = Maths.unique(qSketch.getQuantiles(binNum));
-        if (splits.length + 1 != binNum) {
-            LOG.warn(String.format("Actual bin num %d not equal to %d",
-                    splits.length + 1, binNum));
-            binNum = splits.length + 1;
-        }
+        double[] sample = driftThreshold > 0.0 || targetError > 0.0 ? sampleOf(values) : null;
+        setSplits(qSketch, sample);
+        if (driftThreshold > 0.0)
+            sampleCdf = cdfOf(sample);
         // 3. find the zero index
         findZeroIdx();
         // 4. find index of each value
@@ -50,39 +77,45 @@ public class QuantileQuantizer extends Quantizer {
     }
 
     @Override
-    public void parallelQuantize(double[] values) throws InterruptedException, ExecutionException {
+    public void parallelQuantize(ValueArray values) throws InterruptedException, ExecutionException {
         long startTime = System.currentTimeMillis();
+        n = values.length();
+        if (canReuseSplits(values)) {
+            warmQuantize(values);
+            parallelQuantizeToBins(values);
+            LOG.debug(String.format("Warm-started quantile quantization for %d items cost %d ms",
+                    n, System.currentTimeMillis() - startTime));
+            return;
+        }
         // 1. create quantile sketch summary in parallel
-        n = values.length;
         // 1.1. each thread create a quantile sketch based on a portion of data
         int threadNum = Constants.Parallel.getParallelism();
         ExecutorService threadPool = Constants.Parallel.getThreadPool();
-        Future<HeapQuantileSketch>[] futures = new Future[threadNum];
+        Future<QuantileSketch>[] futures = new Future[threadNum];
         for (int i = 0; i < threadNum; i++) {
             int threadId = i;
-            futures[threadId] = threadPool.submit(new Callable<HeapQuantileSketch>() {
+            futures[threadId] = threadPool.submit(new Callable<QuantileSketch>() {
                 @Override
-                public HeapQuantileSketch call() throws Exception {
+                public QuantileSketch call() throws Exception {
                     int elementPerThread = n / threadNum;
                     int from = threadId * elementPerThread;
                     int to = threadId + 1 == threadNum ? n : from + elementPerThread;
-                    HeapQuantileSketch qSketch = new HeapQuantileSketch((long) (to - from));
-                    for (int itemId = from; itemId < to; itemId++) {
-                        qSketch.update(values[itemId]);
-                    }
+                    QuantileSketch qSketch = QuantileSketch.newSketch(sketchType, (long) (to - from));
+                    qSketch.update(values, from, to);
                     return qSketch;
                 }
             });
         }
-        // 1.2. merge all quantile sketches together
-        HeapQuantileSketch qSketch = futures[0].get();
-        for (int i = 1; i < threadNum; i++) {
-            qSketch.merge(futures[i].get());
-        }
-        min = qSketch.getMinValue();
-        max = qSketch.getMaxValue();
+        // 1.2. merge all quantile sketches together in a binary tree
+        QuantileSketch[] qSketches = new QuantileSketch[threadNum];
+        for (int i = 0; i < threadNum; i++)
+            qSketches[i] = futures[i].get();
+        QuantileSketch qSketch = QuantileSketch.parallelTreeMerge(qSketches);
         // 2. query quantiles, set them as bin edges
-        splits = qSketch.getQuantiles(binNum);
+        double[] sample = driftThreshold > 0.0 || targetError > 0.0 ? sampleOf(values) : null;
+        setSplits(qSketch, sample);
+        if (driftThreshold > 0.0)
+            sampleCdf = cdfOf(sample);
         // 3. find the zero index
         findZeroIdx();
         // 4. find index of each value
@@ -91,6 +124,178 @@ public class QuantileQuantizer extends Quantizer {
                 n, System.currentTimeMillis() - startTime));
     }
 
+    /**
+     * Quantize with bin edges queried from a given summary, e.g., a global one
+     * merged from quantile sketches of all workers, without building a local one
+     */
+    public void quantize(ValueArray values, QuantileSketch qSketch) {
+        long startTime = System.currentTimeMillis();
+        n = values.length();
+        // 1. query quantiles, set them as bin edges
+        setSplits(qSketch, targetError > 0.0 ? sampleOf(values) : null);
+        // 2. find the zero index
+        findZeroIdx();
+        // 3. find index of each value
+        quantizeToBins(values);
+        LOG.debug(String.format("Quantile quantization for %d items with given summary cost %d ms",
+                n, System.currentTimeMillis() - startTime));
+    }
+
+    public void quantize(double[] values, QuantileSketch qSketch) {
+        quantize(ValueArray.of(values), qSketch);
+    }
+
+    public void quantize(float[] values, QuantileSketch qSketch) {
+        quantize(ValueArray.of(values), qSketch);
+    }
+
+    /**
+     * @param sample sampled values to choose the bin num, only used if `targetError` is positive
+     */
+    private void setSplits(QuantileSketch qSketch, double[] sample) {
+        int num = targetError > 0.0 ? chooseBinNum(qSketch, sample) : targetBinNum;
+        min = qSketch.getMinValue();
+        max = qSketch.getMaxValue();
+        splits = Maths.unique(qSketch.getQuantiles(num));
+        if (splits.length + 1 != num)
+            LOG.warn(String.format("Actual bin num %d not equal to %d",
+                    splits.length + 1, num));
+        binNum = splits.length + 1;
+        lookup = null;
+        sampleCdf = null;
+    }
+
+    /**
+     * The smallest bin num, doubled from `minBinNum` up to `targetBinNum`, whose
+     * relative error ||q(x) - x|| / ||x|| on the sample is no more than `targetError`,
+     * so that bins are encoded in the fewest bits. Errors are estimated with
+     * midpoints of bins, i.e., without stochastic rounding.
+     */
+    private int chooseBinNum(QuantileSketch qSketch, double[] sample) {
+        double norm = 0.0;
+        for (double v : sample)
+            norm += v * v;
+        double budget = targetError * targetError * norm;
+        int num = 2;
+        while (num < minBinNum)
+            num <<= 1;
+        for (; num < targetBinNum; num <<= 1) {
+            if (squaredError(qSketch, num, sample) <= budget) {
+                LOG.debug(String.format("Choose bin num %d for relative error %f", num, targetError));
+                return num;
+            }
+        }
+        return targetBinNum;
+    }
+
+    private static double squaredError(QuantileSketch qSketch, int num, double[] sample) {
+        double[] edges = Maths.unique(qSketch.getQuantiles(num));
+        int splitNum = edges.length;
+        double[] values = new double[splitNum + 1];
+        values[0] = 0.5 * (qSketch.getMinValue() + edges[0]);
+        for (int i = 1; i < splitNum; i++)
+            values[i] = 0.5 * (edges[i - 1] + edges[i]);
+        values[splitNum] = 0.5 * (edges[splitNum - 1] + qSketch.getMaxValue());
+        double res = 0.0;
+        for (double v : sample) {
+            double diff = values[Maths.upperBound(edges, splitNum, v)] - v;
+            res += diff * diff;
+        }
+        return res;
+    }
+
+    /**
+     * Splits of last call are reused if the distribution of a sample of values
+     * over the bins drifts no more than `driftThreshold`, measured as the maximal
+     * difference of the fractions below each split (Kolmogorov-Smirnov distance)
+     */
+    private boolean canReuseSplits(ValueArray values) {
+        return driftThreshold > 0.0 && sampleCdf != null && values.length() > 0
+                && drift(sampleOf(values)) <= driftThreshold;
+    }
+
+    private double drift(double[] sample) {
+        double[] cdf = cdfOf(sample);
+        double drift = 0.0;
+        for (int i = 0; i < cdf.length; i++)
+            drift = Math.max(drift, Math.abs(cdf[i] - sampleCdf[i]));
+        LOG.debug(String.format("Drift of quantile splits: %f, threshold: %f", drift, driftThreshold));
+        return drift;
+    }
+
+    private static double[] sampleOf(ValueArray values) {
+        int stride = Math.max(1, values.length() / SAMPLE_SIZE);
+        double[] sample = new double[(values.length() + stride - 1) / stride];
+        for (int i = 0; i < sample.length; i++)
+            sample[i] = values.get(i * stride);
+        return sample;
+    }
+
+    private double[] cdfOf(double[] sample) {
+        int[] counts = new int[binNum];
+        for (double v : sample)
+            counts[indexOf(v)]++;
+        double[] cdf = new double[binNum - 1];
+        int cnt = 0;
+        for (int i = 0; i + 1 < binNum; i++) {
+            cnt += counts[i];
+            cdf[i] = (double) cnt / sample.length;
+        }
+        return cdf;
+    }
+
+    /**
+     * Keep splits, only update min, max and the zero index
+     */
+    private void warmQuantize(ValueArray values) {
+        min = Double.MAX_VALUE;
+        max = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double v = values.get(i);
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        findZeroIdx();
+    }
+
+    @Override
+    public void timesBy(double x) {
+        super.timesBy(x);
+        sampleCdf = null;
+    }
+
+    public double getDriftThreshold() {
+        return driftThreshold;
+    }
+
+    public void setDriftThreshold(double driftThreshold) {
+        this.driftThreshold = driftThreshold;
+    }
+
+    public double getTargetError() {
+        return targetError;
+    }
+
+    public void setTargetError(double targetError) {
+        this.targetError = targetError;
+    }
+
+    public int getMinBinNum() {
+        return minBinNum;
+    }
+
+    /**
+     * Lower bound of the bin num chosen for `targetError`, e.g., no less than
+     * the number of groups of a GroupedMinMaxSketch
+     */
+    public void setMinBinNum(int minBinNum) {
+        this.minBinNum = minBinNum;
+    }
+
+    public QuantileSketch.SketchType getSketchType() {
+        return sketchType;
+    }
+
     @Override
     public QuantizationType quantizationType() {
         return QuantizationType.QUANTILE;
@@ -0,0 +1,305 @@
+package org.dma.sketchml.sketch.quantization;
+
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.base.QuantileSketch;
+import org.dma.sketchml.sketch.base.Quantizer;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.dma.sketchml.sketch.base.ValueArray;
+import org.dma.sketchml.sketch.util.Maths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.DoubleBuffer;
+import java.util.Iterator;
+
+/**
+ * Quantile quantizer over a stream of chunks, so that values need not be
+ * materialized in a single array.
+ *
+ * The first `warmupSize` values are buffered to build provisional splits,
+ * after which each chunk is assigned to bins as it arrives while the quantile
+ * sketch keeps being updated. If recent values fall into the bins with a
+ * distribution that drifts from the one when splits were built by more than
+ * `driftThreshold`, splits are rebuilt from the sketch and assigned bins are
+ * re-mapped by their bin values. Splits are rebuilt at most `maxRebinNum`
+ * times, each costing a pass over assigned bins.
+ */
+public class StreamingQuantizer extends Quantizer {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingQuantizer.class);
+
+    public static final int DEFAULT_WARMUP_SIZE = 65536;
+    public static final int DEFAULT_MAX_REBIN_NUM = 4;
+    private static final int CHUNK_SIZE = 8192;
+
+    private final int targetBinNum;
+    private final QuantileSketch.SketchType sketchType;
+    private int warmupSize;
+    private int maxRebinNum;
+    private double driftThreshold;
+
+    // states of the stream being quantized
+    private transient QuantileSketch qSketch;
+    private transient double[] warmup;
+    private transient int warmupCount;
+    private transient int count;
+    private transient long[] binCounts;     // number of assigned values in each bin
+    private transient long[] windowCounts;  // number of values in each bin since last drift check
+    private transient double[] expectedCdf; // fractions below each split when splits were built
+    private transient int rebinNum;
+    private transient double[] chunk;       // copy buffer of direct buffers and floats
+
+    public StreamingQuantizer(int binNum, QuantileSketch.SketchType sketchType, int warmupSize,
+                              int maxRebinNum, double driftThreshold) {
+        super(binNum);
+        this.targetBinNum = binNum;
+        this.sketchType = sketchType;
+        this.warmupSize = warmupSize;
+        this.maxRebinNum = maxRebinNum;
+        this.driftThreshold = driftThreshold;
+    }
+
+    public StreamingQuantizer(int binNum) {
+        this(binNum, QuantileQuantizer.DEFAULT_SKETCH_TYPE, DEFAULT_WARMUP_SIZE,
+                DEFAULT_MAX_REBIN_NUM, QuantileQuantizer.DEFAULT_DRIFT_THRESHOLD);
+    }
+
+    public StreamingQuantizer() {
+        this(Quantizer.DEFAULT_BIN_NUM);
+    }
+
+    @Override
+    public void quantize(ValueArray values) {
+        add(values, 0, values.length());
+        finish();
+    }
+
+    @Override
+    public void parallelQuantize(ValueArray values) {
+        LOG.warn("Streaming quantization is sequential");
+        quantize(values);
+    }
+
+    /**
+     * Doubles are added without being copied into chunks
+     */
+    @Override
+    public void quantize(double[] values) {
+        add(values, 0, values.length);
+        finish();
+    }
+
+    public void quantize(DoubleBuffer values) {
+        add(values);
+        finish();
+    }
+
+    public void quantize(Iterator<double[]> chunks) {
+        while (chunks.hasNext()) {
+            double[] chunk = chunks.next();
+            add(chunk, 0, chunk.length);
+        }
+        finish();
+    }
+
+    /**
+     * Add remaining values of a buffer, which is consumed
+     */
+    public void add(DoubleBuffer values) {
+        if (values.hasArray()) {
+            int from = values.arrayOffset() + values.position();
+            add(values.array(), from, from + values.remaining());
+            values.position(values.limit());
+        } else {
+            if (chunk == null)
+                chunk = new double[CHUNK_SIZE];
+            while (values.hasRemaining()) {
+                int len = Math.min(CHUNK_SIZE, values.remaining());
+                values.get(chunk, 0, len);
+                add(chunk, 0, len);
+            }
+        }
+    }
+
+    /**
+     * Add values in doubles or floats, which are copied chunk by chunk
+     */
+    public void add(ValueArray values, int from, int to) {
+        if (chunk == null)
+            chunk = new double[CHUNK_SIZE];
+        for (int i = from; i < to; i += CHUNK_SIZE) {
+            int len = Math.min(CHUNK_SIZE, to - i);
+            values.copyTo(i, i + len, chunk, 0);
+            add(chunk, 0, len);
+        }
+    }
+
+    public void add(float[] values, int from, int to) {
+        add(ValueArray.of(values), from, to);
+    }
+
+    public void add(double[] values, int from, int to) {
+        if (qSketch == null)
+            begin();
+        if (to <= from) return;
+        qSketch.update(values, from, to);
+        // 1. buffer values until there are enough to build provisional splits
+        if (warmup != null) {
+            int len = Math.min(to - from, warmupSize - warmupCount);
+            System.arraycopy(values, from, warmup, warmupCount, len);
+            warmupCount += len;
+            from += len;
+            if (warmupCount < warmupSize) return;
+            endWarmup();
+        }
+        // 2. assign values to bins with current splits
+        assign(values, from, to);
+        // 3. rebuild splits if values in the window drift
+        if (rebinNum < maxRebinNum && windowSize() >= CHUNK_SIZE && drift() > driftThreshold)
+            rebin();
+    }
+
+    /**
+     * End the stream and set bins of all values
+     */
+    public void finish() {
+        if (qSketch == null)
+            begin();
+        if (warmup != null)
+            endWarmup();
+        if (rebinNum < maxRebinNum && windowSize() > 0 && drift() > driftThreshold)
+            rebin();
+        n = count;
+        min = qSketch.getMinValue();
+        max = qSketch.getMaxValue();
+        findZeroIdx();
+        bins = bins.copyOf(count);
+        binEncoder = null;
+        LOG.debug(String.format("Streaming quantization for %d items, rebuilt splits %d times",
+                n, rebinNum));
+        qSketch = null;
+        binCounts = null;
+        windowCounts = null;
+        expectedCdf = null;
+    }
+
+    private void begin() {
+        qSketch = QuantileSketch.newSketch(sketchType, -1L);
+        warmup = new double[warmupSize];
+        warmupCount = 0;
+        count = 0;
+        rebinNum = 0;
+        binNum = targetBinNum;
+        bins = BinArray.allocate(Math.max(warmupSize, 16), targetBinNum - 1);
+        binEncoder = null;
+    }
+
+    private void endWarmup() {
+        setSplits();
+        binCounts = new long[targetBinNum];
+        windowCounts = new long[targetBinNum];
+        double[] values = warmup;
+        warmup = null;
+        assign(values, 0, warmupCount);
+        resetWindow();
+    }
+
+    private void setSplits() {
+        min = qSketch.getMinValue();
+        max = qSketch.getMaxValue();
+        splits = qSketch.isEmpty() ? new double[]{0.0}
+                : Maths.unique(qSketch.getQuantiles(targetBinNum));
+        binNum = splits.length + 1;
+        lookup = null;
+        findZeroIdx();
+    }
+
+    private void assign(double[] values, int from, int to) {
+        if (count + to - from > bins.length())
+            bins = bins.copyOf(Math.max(count + to - from, bins.length() * 2));
+        for (int i = from; i < to; i++) {
+            int bin = indexOf(values[i]);
+            bins.set(count++, bin);
+            windowCounts[bin]++;
+        }
+    }
+
+    private long windowSize() {
+        long res = 0;
+        for (int i = 0; i < binNum; i++)
+            res += windowCounts[i];
+        return res;
+    }
+
+    /**
+     * Fold counts of the window into all counts, and start a new window
+     */
+    private void resetWindow() {
+        for (int i = 0; i < binNum; i++) {
+            binCounts[i] += windowCounts[i];
+            windowCounts[i] = 0;
+        }
+        expectedCdf = cdf(binCounts);
+    }
+
+    private double[] cdf(long[] counts) {
+        double[] res = new double[binNum - 1];
+        long total = 0, cnt = 0;
+        for (int i = 0; i < binNum; i++)
+            total += counts[i];
+        for (int i = 0; i + 1 < binNum; i++) {
+            cnt += counts[i];
+            res[i] = total == 0 ? 0.0 : (double) cnt / total;
+        }
+        return res;
+    }
+
+    /**
+     * Kolmogorov-Smirnov distance between values in the window and when splits were built,
+     * the window is folded into all counts if it does not drift
+     */
+    private double drift() {
+        double[] cdf = cdf(windowCounts);
+        double res = 0.0;
+        for (int i = 0; i < cdf.length; i++)
+            res = Math.max(res, Math.abs(cdf[i] - expectedCdf[i]));
+        if (res <= driftThreshold) {
+            for (int i = 0; i < binNum; i++) {
+                binCounts[i] += windowCounts[i];
+                windowCounts[i] = 0;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Rebuild splits from the sketch and re-map assigned bins by their bin values
+     */
+    private void rebin() {
+        double[] oldValues = getValues();
+        setSplits();
+        int[] mapping = new int[oldValues.length];
+        for (int i = 0; i < oldValues.length; i++)
+            mapping[i] = indexOf(oldValues[i]);
+        for (int i = 0; i < count; i++)
+            bins.set(i, mapping[bins.get(i)]);
+        long[] newCounts = new long[targetBinNum];
+        for (int i = 0; i < oldValues.length; i++)
+            newCounts[mapping[i]] += binCounts[i] + windowCounts[i];
+        binCounts = newCounts;
+        windowCounts = new long[targetBinNum];
+        resetWindow();
+        rebinNum++;
+        LOG.debug(String.format("Rebuild splits after %d items", count));
+    }
+
+    @Override
+    public void setStochastic(boolean stochastic) {
+        if (stochastic)
+            throw new SketchMLException("Stochastic rounding is not supported by StreamingQuantizer");
+    }
+
+    @Override
+    public QuantizationType quantizationType() {
+        return QuantizationType.QUANTILE;
+    }
+}
@@ -0,0 +1,44 @@
+package org.dma.sketchml.sketch.quantization;
+
+import org.dma.sketchml.sketch.base.BinLookup;
+
+/**
+ * Direct-mapped lookup for evenly spaced splits, the bin is computed as
+ * `floor((x - min) / step)` and then corrected by comparing with its
+ * neighboring splits, so that it is exact in spite of rounding errors
+ */
+public class UniformLookup implements BinLookup {
+    private final double[] splits;
+    private final double base;
+    private final double invStep;
+
+    public UniformLookup(double[] splits) {
+        this.splits = splits;
+        int splitNum = splits.length;
+        this.base = splits[0];
+        this.invStep = splitNum > 1 ? (splitNum - 1) / (splits[splitNum - 1] - splits[0]) : 0.0;
+    }
+
+    /**
+     * Whether the splits are increasing with a finite step, which is required
+     */
+    public static boolean isApplicable(double[] splits) {
+        int splitNum = splits.length;
+        if (splitNum == 0)
+            return false;
+        double step = splitNum > 1 ? (splits[splitNum - 1] - splits[0]) / (splitNum - 1) : 1.0;
+        return step > 0.0 && !Double.isInfinite(1.0 / step) && !Double.isInfinite(step);
+    }
+
+    @Override
+    public int indexOf(double x) {
+        int splitNum = splits.length;
+        double pos = (x - base) * invStep + 1.0;
+        int bin = pos <= 0.0 ? 0 : pos >= splitNum ? splitNum : (int) pos;
+        while (bin < splitNum && splits[bin] <= x)
+            bin++;
+        while (bin > 0 && splits[bin - 1] > x)
+            bin--;
+        return bin;
+    }
+}
@@ -1,6 +1,8 @@
 package org.dma.sketchml.sketch.quantization;
 
+import org.dma.sketchml.sketch.base.BinLookup;
 import org.dma.sketchml.sketch.base.Quantizer;
+import org.dma.sketchml.sketch.base.ValueArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,42 +20,36 @@ public class UniformQuantizer extends Quantizer {
     }
 
     @Override
-    public void quantize(double[] values) {
+    public void quantize(ValueArray values) {
         long startTime = System.currentTimeMillis();
-        n = values.length;
-        min = Double.MAX_VALUE;
-        max = Double.MIN_VALUE;
-        for (double v : values) {
-            if (v < min) min = v;
-            if (v > max) max = v;
-        }
         // 1. uniformly split the range of values
-        double step = (max - min) / binNum;
-        int splitNum = binNum - 1;
-        splits = new double[splitNum];
-        splits[0] = min + step;
-        for (int i = 1; i < splitNum; i++) {
-            splits[i] = splits[i - 1] + step;
-        }
-        // 3. find the zero index
-        findZeroIdx();
-        // 4. find index of each value
+        setSplits(values);
+        // 2. find index of each value
         quantizeToBins(values);
         LOG.debug(String.format("Uniform quantization for %d items cost %d ms",
                 n, System.currentTimeMillis() - startTime));
     }
 
     @Override
-    public void parallelQuantize(double[] values) throws InterruptedException, ExecutionException {
+    public void parallelQuantize(ValueArray values) throws InterruptedException, ExecutionException {
         long startTime = System.currentTimeMillis();
-        n = values.length;
+        // 1. uniformly split the range of values
+        setSplits(values);
+        // 2. find index of each value
+        parallelQuantizeToBins(values);
+        LOG.debug(String.format("Uniform quantization for %d items cost %d ms",
+                n, System.currentTimeMillis() - startTime));
+    }
+
+    private void setSplits(ValueArray values) {
+        n = values.length();
         min = Double.MAX_VALUE;
-        max = Double.MIN_VALUE;
-        for (double v : values) {
+        max = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double v = values.get(i);
             if (v < min) min = v;
             if (v > max) max = v;
         }
-        // 1. uniformly split the range of values
         double step = (max - min) / binNum;
         int splitNum = binNum - 1;
         splits = new double[splitNum];
@@ -61,12 +57,15 @@ public class UniformQuantizer extends Quantizer {
         for (int i = 1; i < splitNum; i++) {
             splits[i] = splits[i - 1] + step;
         }
-        // 3. find the zero index
         findZeroIdx();
-        // 4. find index of each value
-        parallelQuantizeToBins(values);
-        LOG.debug(String.format("Uniform quantization for %d items cost %d ms",
-                n, System.currentTimeMillis() - startTime));
+    }
+
+    /**
+     * Splits are evenly spaced, so the bin is looked up directly
+     */
+    @Override
+    protected BinLookup newLookup() {
+        return UniformLookup.isApplicable(splits) ? new UniformLookup(splits) : super.newLookup();
     }
 
     @Override
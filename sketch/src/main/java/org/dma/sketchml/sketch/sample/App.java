@@ -3,10 +3,12 @@ package org.dma.sketchml.sketch.sample;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.apache.commons.lang3.tuple.Pair;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
 import org.dma.sketchml.sketch.base.QuantileSketch;
 import org.dma.sketchml.sketch.base.Quantizer;
 import org.dma.sketchml.sketch.base.VectorCompressor;
 import org.dma.sketchml.sketch.common.Constants;
+import org.dma.sketchml.sketch.quantization.BlockQuantizer;
 import org.dma.sketchml.sketch.sketch.frequency.GroupedMinMaxSketch;
 import org.dma.sketchml.sketch.sketch.frequency.MinMaxSketch;
 import org.dma.sketchml.sketch.sketch.quantile.HeapQuantileSketch;
@@ -24,12 +26,14 @@ public class App {
 
     public static void main(String[] args) throws Exception {
         Constants.Parallel.setParallelism(4);
-        dense();
+        dense(Quantizer.QuantizationType.QUANTILE, Quantizer.DEFAULT_BIN_NUM);
+        dense(Quantizer.QuantizationType.BLOCK, BlockQuantizer.DEFAULT_BLOCK_BIN_NUM);
         sparse();
+        minMaxSketchLayouts();
         Constants.Parallel.shutdown();
     }
 
-    private static void dense() throws Exception {
+    private static void dense(Quantizer.QuantizationType quantType, int binNum) throws Exception {
         int n = 1000000;
         double density = 0.9;
         double[] values = new double[n];
@@ -38,8 +42,6 @@ public class App {
                 values[i] = random.nextGaussian();
             }
         }
-        Quantizer.QuantizationType quantType = Quantizer.QuantizationType.QUANTILE;
-        int binNum = Quantizer.DEFAULT_BIN_NUM;
         VectorCompressor compressor = new DenseVectorCompressor(quantType, binNum);
         //compressor.compressDense(values);
         compressor.parallelCompressDense(values);
@@ -87,7 +89,8 @@ public class App {
         compressor = (VectorCompressor) Utils.testSerialization(compressor);
         //compressor.compressSparse(keys, values);
         compressor.parallelCompressSparse(keys, values);
-        Pair<int[], double[]> dResult = compressor.decompressSparse();
+        //Pair<int[], double[]> dResult = compressor.decompressSparse();
+        Pair<int[], double[]> dResult = ((SparseVectorCompressor) compressor).parallelDecompressSparse();
         int[] dKeys = dResult.getLeft();
         double[] dValues = dResult.getRight();
         LOG.info(String.format("Array length: [%d, %d] vs. [%d, %d]",
@@ -115,4 +118,44 @@ public class App {
         LOG.info(String.format("Compress %d bytes into %d bytes, compression rate: %f",
                 originBytes, compressBytes, 1.0 * originBytes / compressBytes));
     }
+
+    /**
+     * Compare accuracy and speed of MinMaxSketch in the row-by-row layout
+     * and in cache-line blocks
+     */
+    private static void minMaxSketchLayouts() {
+        int n = 1000000;
+        int binNum = Quantizer.DEFAULT_BIN_NUM;
+        int zeroIdx = binNum / 2;
+        int colNum = (int) (n * GroupedMinMaxSketch.DEFAULT_MINMAXSKETCH_COL_RATIO);
+        int[] keys = new int[n];
+        int[] bins = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i * 10 + random.nextInt(10);
+            bins[i] = Math.max(0, Math.min(binNum - 1, zeroIdx + (int) (random.nextGaussian() * 32)));
+        }
+        for (int rowNum = 2; rowNum <= 4; rowNum++) {
+            for (boolean blocked : new boolean[]{false, true}) {
+                MinMaxSketch sketch = new MinMaxSketch(rowNum, colNum, zeroIdx, binNum,
+                        BinaryEncoder.EncoderType.CANONICAL_HUFFMAN, random.nextLong(), blocked);
+                long startTime = System.currentTimeMillis();
+                for (int i = 0; i < n; i++)
+                    sketch.insert(keys[i], bins[i]);
+                long insertTime = System.currentTimeMillis() - startTime;
+                startTime = System.currentTimeMillis();
+                int exact = 0;
+                long error = 0;
+                for (int i = 0; i < n; i++) {
+                    int bin = sketch.query(keys[i]);
+                    if (bin == bins[i])
+                        exact++;
+                    error += Math.abs(bin - bins[i]);
+                }
+                long queryTime = System.currentTimeMillis() - startTime;
+                LOG.info(String.format("MinMaxSketch of %d rows, blocked: %b, exact ratio: %f, " +
+                                "mean bin error: %f, insert cost %d ms, query cost %d ms", rowNum, blocked,
+                        1.0 * exact / n, 1.0 * error / n, insertTime, queryTime));
+            }
+        }
+    }
 }
@@ -2,8 +2,10 @@ package org.dma.sketchml.sketch.sample;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
 import org.dma.sketchml.sketch.base.Quantizer;
 import org.dma.sketchml.sketch.base.SketchMLException;
+import org.dma.sketchml.sketch.base.ValueArray;
 import org.dma.sketchml.sketch.base.VectorCompressor;
 import org.dma.sketchml.sketch.util.Maths;
 import org.dma.sketchml.sketch.util.Utils;
@@ -11,7 +13,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 
@@ -22,72 +26,71 @@ public class DenseVectorCompressor implements VectorCompressor {
 
     private Quantizer.QuantizationType quantType;
     private int quantBinNum;
+    private BinaryEncoder.EncoderType binEncoderType;
     private Quantizer quantizer;
 
     public DenseVectorCompressor(
-            Quantizer.QuantizationType quantType, int quantBinNum) {
+            Quantizer.QuantizationType quantType, int quantBinNum,
+            BinaryEncoder.EncoderType binEncoderType) {
         this.quantType = quantType;
         this.quantBinNum = quantBinNum;
+        this.binEncoderType = binEncoderType;
+    }
+
+    public DenseVectorCompressor(
+            Quantizer.QuantizationType quantType, int quantBinNum) {
+        this(quantType, quantBinNum, null);
     }
 
     @Override
-    public void compressDense(double[] values) {
+    public void compressDense(ValueArray values) {
         long startTime = System.currentTimeMillis();
-        size = values.length;
+        size = values.length();
         quantizer = Quantizer.newQuantizer(quantType, quantBinNum);
+        quantizer.setBinEncoderType(binEncoderType);
         quantizer.quantize(values);
         LOG.debug(String.format("Dense vector compression cost %d ms, %d items " +
                 "in total", System.currentTimeMillis() - startTime, size));
     }
 
     @Override
-    public void compressSparse(int[] keys, double[] values) {
+    public void compressSparse(int[] keys, ValueArray values) {
         LOG.warn("Compressing a sparse vector with DenseVectorCompressor");
-        if (keys.length != values.length) {
+        if (keys.length != values.length()) {
             throw new SketchMLException(String.format(
                     "Lengths of key array and value array do not match: %d, %d",
-                    keys.length, values.length));
+                    keys.length, values.length()));
         }
-        int maxKey = Maths.max(keys);
-        double[] dense = new double[maxKey];
-        for (int i = 0; i < keys.length; i++)
-            dense[keys[i]] = values[i];
+        ValueArray dense = values.scatter(keys, Maths.max(keys) + 1);
         compressDense(dense);
     }
 
     @Override
-    public void parallelCompressDense(double[] values) throws InterruptedException, ExecutionException {
+    public void parallelCompressDense(ValueArray values) throws InterruptedException, ExecutionException {
         long startTime = System.currentTimeMillis();
-        size = values.length;
+        size = values.length();
         quantizer = Quantizer.newQuantizer(quantType, quantBinNum);
+        quantizer.setBinEncoderType(binEncoderType);
         quantizer.parallelQuantize(values);
         LOG.debug(String.format("Dense vector parallel compression cost %d ms, %d items " +
                 "in total", System.currentTimeMillis() - startTime, size));
     }
 
     @Override
-    public void parallelCompressSparse(int[] keys, double[] values) throws InterruptedException, ExecutionException {
+    public void parallelCompressSparse(int[] keys, ValueArray values) throws InterruptedException, ExecutionException {
         LOG.warn("Compressing a sparse vector with DenseVectorCompressor");
-        if (keys.length != values.length) {
+        if (keys.length != values.length()) {
             throw new SketchMLException(String.format(
                     "Lengths of key array and value array do not match: %d, %d",
-                    keys.length, values.length));
+                    keys.length, values.length()));
         }
-        int maxKey = Maths.max(keys);
-        double[] dense = new double[maxKey];
-        for (int i = 0; i < keys.length; i++)
-            dense[keys[i]] = values[i];
+        ValueArray dense = values.scatter(keys, Maths.max(keys) + 1);
         parallelCompressDense(dense);
     }
 
     @Override
     public double[] decompressDense() {
-        double[] values = new double[size];
-        double[] quantValues = quantizer.getValues();
-        int[] bins = quantizer.getBins();
-        for (int i = 0; i < size; i++)
-            values[i] = quantValues[bins[i]];
-        return values;
+        return quantizer.dequantize();
     }
 
     @Override
@@ -110,8 +113,51 @@ public class DenseVectorCompressor implements VectorCompressor {
 
     @Override
     public int memoryBytes() throws IOException {
-        int res = 12;
-        if (quantizer != null) res += Utils.sizeof(quantizer);
-        return res;
+        return serializedSize();
+    }
+
+    /**
+     * Layout: [version][size][quantType][quantBinNum][binEncoderType, -1 for none]
+     * [whether compressed][Quantizer]
+     */
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.put(SERIALIZATION_VERSION);
+        dst.putInt(size);
+        dst.put(quantType.id());
+        dst.putInt(quantBinNum);
+        dst.put(binEncoderType == null ? -1 : binEncoderType.id());
+        dst.put((byte) (quantizer != null ? 1 : 0));
+        if (quantizer != null)
+            quantizer.writeTo(dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        VectorCompressor.checkVersion(src);
+        size = src.getInt();
+        quantType = Quantizer.QuantizationType.fromId(src.get());
+        quantBinNum = src.getInt();
+        int binEncoderId = src.get();
+        binEncoderType = binEncoderId < 0 ? null : BinaryEncoder.EncoderType.fromId(binEncoderId);
+        if (src.get() != 0) {
+            quantizer = Quantizer.newQuantizer(quantType, quantBinNum);
+            quantizer.readFrom(src);
+        } else {
+            quantizer = null;
+        }
+    }
+
+    @Override
+    public int serializedSize() {
+        return 12 + (quantizer != null ? quantizer.serializedSize() : 0);
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        Utils.writeBuffer(this, oos);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        Utils.readBuffer(this, ois);
     }
 }
@@ -4,14 +4,19 @@ package org.dma.sketchml.sketch.sample;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.dma.sketchml.sketch.sketch.frequency.GroupedMinMaxSketch;
+import org.dma.sketchml.sketch.sketch.frequency.MinMaxSketch;
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
 import org.dma.sketchml.sketch.base.Quantizer;
 import org.dma.sketchml.sketch.base.SketchMLException;
+import org.dma.sketchml.sketch.base.ValueArray;
 import org.dma.sketchml.sketch.base.VectorCompressor;
 import org.dma.sketchml.sketch.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 
@@ -29,75 +34,128 @@ public class SparseVectorCompressor implements VectorCompressor {
     private int mmSketchGroupNum;
     private int mmSketchRowNum;
     private double mmSketchColRatio;
+    private BinaryEncoder.EncoderType keyEncoderType;
+    private BinaryEncoder.EncoderType tableEncoderType;
+    private boolean mmSketchBlocked;
+
+    // quantizer reused across calls, e.g., a warm-started one, null to create one per call
+    private transient Quantizer quantizer;
 
     public SparseVectorCompressor(
             Quantizer.QuantizationType quantType, int quantBinNum,
-            int mmSketchGroupNum, int mmSketchRowNum, double mmSketchColRatio) {
+            int mmSketchGroupNum, int mmSketchRowNum, double mmSketchColRatio,
+            BinaryEncoder.EncoderType keyEncoderType, BinaryEncoder.EncoderType tableEncoderType) {
+        if (quantType == Quantizer.QuantizationType.BLOCK)
+            throw new SketchMLException("Block quantization only applies to dense vectors");
+        GroupedMinMaxSketch.checkKeyEncoderType(keyEncoderType);
+        MinMaxSketch.checkTableEncoderType(tableEncoderType, quantBinNum);
         this.quantType = quantType;
         this.quantBinNum = quantBinNum;
         this.mmSketchGroupNum = mmSketchGroupNum;
         this.mmSketchRowNum = mmSketchRowNum;
         this.mmSketchColRatio = mmSketchColRatio;
+        this.keyEncoderType = keyEncoderType;
+        this.tableEncoderType = tableEncoderType;
+    }
+
+    public SparseVectorCompressor(
+            Quantizer.QuantizationType quantType, int quantBinNum,
+            int mmSketchGroupNum, int mmSketchRowNum, double mmSketchColRatio,
+            BinaryEncoder.EncoderType keyEncoderType) {
+        this(quantType, quantBinNum, mmSketchGroupNum, mmSketchRowNum, mmSketchColRatio,
+                keyEncoderType, MinMaxSketch.DEFAULT_TABLE_ENCODER_TYPE);
+    }
+
+    public SparseVectorCompressor(
+            Quantizer.QuantizationType quantType, int quantBinNum,
+            int mmSketchGroupNum, int mmSketchRowNum, double mmSketchColRatio) {
+        this(quantType, quantBinNum, mmSketchGroupNum, mmSketchRowNum, mmSketchColRatio,
+                GroupedMinMaxSketch.DEFAULT_KEY_ENCODER_TYPE);
     }
 
     @Override
-    public void compressDense(double[] values) {
+    public void compressDense(ValueArray values) {
         LOG.warn("Compressing a dense vector with SparseVectorCompressor");
-        int[] keys = new int[values.length];
+        int[] keys = new int[values.length()];
         Arrays.setAll(keys, i -> i);
         compressSparse(keys, values);
     }
 
     @Override
-    public void compressSparse(int[] keys, double[] values) {
+    public void compressSparse(int[] keys, ValueArray values) {
         long startTime = System.currentTimeMillis();
-        if (keys.length != values.length) {
+        if (keys.length != values.length()) {
             throw new SketchMLException(String.format(
                     "Lengths of key array and value array do not match: %d, %d",
-                    keys.length, values.length));
+                    keys.length, values.length()));
         }
         size = keys.length;
         // 1. quantize into bin indexes
-        Quantizer quantizer = Quantizer.newQuantizer(quantType, quantBinNum);
+        Quantizer quantizer = getQuantizer();
         quantizer.quantize(values);
         quantValues = quantizer.getValues();
         // 2. encode bins and keys
         mmSketches = new GroupedMinMaxSketch(mmSketchGroupNum, mmSketchRowNum,
-                mmSketchColRatio, quantizer.getBinNum(), quantizer.getZeroIdx());
+                mmSketchColRatio, quantizer.getBinNum(), quantizer.getZeroIdx(), keyEncoderType, tableEncoderType);
+        mmSketches.setBlocked(mmSketchBlocked);
         mmSketches.create(keys, quantizer.getBins());
         LOG.debug(String.format("Sparse vector compression cost %d ms, %d key-value " +
                 "pairs in total", System.currentTimeMillis() - startTime, size));
     }
 
     @Override
-    public void parallelCompressDense(double[] values) throws InterruptedException, ExecutionException {
+    public void parallelCompressDense(ValueArray values) throws InterruptedException, ExecutionException {
         LOG.warn("Compressing a dense vector with SparseVectorCompressor");
-        int[] keys = new int[values.length];
+        int[] keys = new int[values.length()];
         Arrays.setAll(keys, i -> i);
         parallelCompressSparse(keys, values);
     }
 
     @Override
-    public void parallelCompressSparse(int[] keys, double[] values) throws InterruptedException, ExecutionException {
+    public void parallelCompressSparse(int[] keys, ValueArray values) throws InterruptedException, ExecutionException {
         long startTime = System.currentTimeMillis();
-        if (keys.length != values.length) {
+        if (keys.length != values.length()) {
             throw new SketchMLException(String.format(
                     "Lengths of key array and value array do not match: %d, %d",
-                    keys.length, values.length));
+                    keys.length, values.length()));
         }
         size = keys.length;
         // 1. quantize into bin indexes
-        Quantizer quantizer = Quantizer.newQuantizer(quantType, quantBinNum);
+        Quantizer quantizer = getQuantizer();
         quantizer.parallelQuantize(values);
         quantValues = quantizer.getValues();
         // 2. encode bins and keys
         mmSketches = new GroupedMinMaxSketch(mmSketchGroupNum, mmSketchRowNum,
-                mmSketchColRatio, quantizer.getBinNum(), quantizer.getZeroIdx());
+                mmSketchColRatio, quantizer.getBinNum(), quantizer.getZeroIdx(), keyEncoderType, tableEncoderType);
+        mmSketches.setBlocked(mmSketchBlocked);
         mmSketches.parallelCreate(keys, quantizer.getBins());
         LOG.debug(String.format("Sparse vector parallel compression cost %d ms, %d key-value " +
                 "pairs in total", System.currentTimeMillis() - startTime, size));
     }
 
+    private Quantizer getQuantizer() {
+        return quantizer != null ? quantizer : Quantizer.newQuantizer(quantType, quantBinNum);
+    }
+
+    /**
+     * Use the given quantizer in all later compressions, so that a warm-started
+     * `QuantileQuantizer` can reuse its splits across calls
+     */
+    public void setQuantizer(Quantizer quantizer) {
+        this.quantizer = quantizer;
+        if (quantizer != null) {
+            this.quantType = quantizer.quantizationType();
+            this.quantBinNum = quantizer.getBinNum();
+        }
+    }
+
+    /**
+     * Whether MinMaxSketches are created in cache-line blocks, see `MinMaxSketch`
+     */
+    public void setMMSketchBlocked(boolean mmSketchBlocked) {
+        this.mmSketchBlocked = mmSketchBlocked;
+    }
+
     @Override
     public double[] decompressDense() {
         Pair<int[], double[]> kv = decompressSparse();
@@ -116,12 +174,22 @@ public class SparseVectorCompressor implements VectorCompressor {
 
     @Override
     public Pair<int[], double[]> decompressSparse() {
-        Pair<int[], int[]> kb = mmSketches.restore();
+        return dequantize(mmSketches.restore());
+    }
+
+    /**
+     * Decompress with groups of MinMaxSketch restored in parallel
+     */
+    public Pair<int[], double[]> parallelDecompressSparse() throws InterruptedException, ExecutionException {
+        return dequantize(mmSketches.parallelRestore());
+    }
+
+    private Pair<int[], double[]> dequantize(Pair<int[], BinArray> kb) {
         int[] keys = kb.getLeft();
-        int[] bins = kb.getRight();
+        BinArray bins = kb.getRight();
         double[] values = new double[size];
         for (int i = 0; i < size; i++)
-            values[i] = quantValues[bins[i]];
+            values[i] = quantValues[bins.get(i)];
         return new ImmutablePair<>(keys, values);
     }
 
@@ -140,9 +208,78 @@ public class SparseVectorCompressor implements VectorCompressor {
 
     @Override
     public int memoryBytes() throws IOException {
-        int res = 28 + quantValues.length * 8;
+        return serializedSize();
+    }
+
+    /**
+     * Layout: [version][size][quantType][quantBinNum][mmSketchGroupNum][mmSketchRowNum]
+     * [mmSketchColRatio][keyEncoderType][tableEncoderType][number of quantized values, -1 for none]
+     * [quantized values][whether compressed][GroupedMinMaxSketch]
+     */
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.put(SERIALIZATION_VERSION);
+        dst.putInt(size);
+        dst.put(quantType.id());
+        dst.putInt(quantBinNum);
+        dst.putInt(mmSketchGroupNum);
+        dst.putInt(mmSketchRowNum);
+        dst.putDouble(mmSketchColRatio);
+        dst.put(keyEncoderType.id());
+        dst.put(tableEncoderType.id());
+        if (quantValues == null) {
+            dst.putInt(-1);
+        } else {
+            dst.putInt(quantValues.length);
+            for (double value : quantValues)
+                dst.putDouble(value);
+        }
+        dst.put((byte) (mmSketches != null ? 1 : 0));
         if (mmSketches != null)
-            res += Utils.sizeof(mmSketches);
+            mmSketches.writeTo(dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        VectorCompressor.checkVersion(src);
+        size = src.getInt();
+        quantType = Quantizer.QuantizationType.fromId(src.get());
+        quantBinNum = src.getInt();
+        mmSketchGroupNum = src.getInt();
+        mmSketchRowNum = src.getInt();
+        mmSketchColRatio = src.getDouble();
+        keyEncoderType = BinaryEncoder.EncoderType.fromId(src.get());
+        tableEncoderType = BinaryEncoder.EncoderType.fromId(src.get());
+        int numValues = src.getInt();
+        if (numValues >= 0) {
+            quantValues = new double[numValues];
+            for (int i = 0; i < numValues; i++)
+                quantValues[i] = src.getDouble();
+        } else {
+            quantValues = null;
+        }
+        if (src.get() != 0) {
+            mmSketches = new GroupedMinMaxSketch(mmSketchGroupNum, mmSketchRowNum,
+                    mmSketchColRatio, quantBinNum, 0, keyEncoderType, tableEncoderType);
+            mmSketches.readFrom(src);
+        } else {
+            mmSketches = null;
+        }
+    }
+
+    @Override
+    public int serializedSize() {
+        int res = 33 + (quantValues != null ? quantValues.length * 8 : 0);
+        if (mmSketches != null)
+            res += mmSketches.serializedSize();
         return res;
     }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        Utils.writeBuffer(this, oos);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        Utils.readBuffer(this, ois);
+    }
 }
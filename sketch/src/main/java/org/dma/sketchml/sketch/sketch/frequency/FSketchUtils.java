@@ -1,8 +1,14 @@
 package org.dma.sketchml.sketch.sketch.frequency;
 
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.common.Constants;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class FSketchUtils {
 
@@ -27,23 +33,119 @@ public class FSketchUtils {
         }
     }
 
-    public static Pair<IntArrayList[], IntArrayList[]> partition(int[] keys, int[] bins, int[] groupEdges) {
+    /**
+     * Partition keys into groups by their bins, keys and bins of a group keep their order.
+     * Sizes of groups are counted first, so that each group is scattered into an exact array.
+     *
+     * @return keys and bins of each group
+     */
+    public static Pair<int[][], int[][]> partition(int[] keys, BinArray bins, int[] groupEdges) {
         int groupNum = groupEdges.length;
-        IntArrayList[] keyLists = new IntArrayList[groupNum];
-        IntArrayList[] binLists = new IntArrayList[groupNum];
+        int[] groupOfBin = groupOfBin(groupEdges);
+        // 1. count items of each group
+        int[] groupSizes = new int[groupNum];
+        for (int i = 0; i < keys.length; i++)
+            groupSizes[groupOfBin[bins.get(i)]]++;
+        // 2. scatter items into their groups
+        int[][] groupKeys = new int[groupNum][];
+        int[][] groupBins = new int[groupNum][];
+        for (int i = 0; i < groupNum; i++) {
+            groupKeys[i] = new int[groupSizes[i]];
+            groupBins[i] = new int[groupSizes[i]];
+        }
+        scatter(keys, bins, 0, keys.length, groupOfBin, new int[groupNum], groupKeys, groupBins);
+        return new ImmutablePair<>(groupKeys, groupBins);
+    }
+
+    /**
+     * Parallel version of `partition`. Each thread counts a contiguous range of items,
+     * and prefix sums of counts give the offset of each thread in each group, so that
+     * threads scatter their ranges without synchronization.
+     */
+    public static Pair<int[][], int[][]> parallelPartition(int[] keys, BinArray bins, int[] groupEdges)
+            throws InterruptedException, ExecutionException {
+        int groupNum = groupEdges.length;
+        int[] groupOfBin = groupOfBin(groupEdges);
+        int threadNum = Constants.Parallel.getParallelism();
+        ExecutorService threadPool = Constants.Parallel.getThreadPool();
+        int sizePerThread = keys.length / threadNum;
+        // 1. each thread counts items of each group in its range
+        Future<int[]>[] futures = new Future[threadNum];
+        for (int i = 0; i < threadNum; i++) {
+            int threadId = i;
+            futures[threadId] = threadPool.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws Exception {
+                    int from = threadId * sizePerThread;
+                    int to = threadId + 1 == threadNum ? keys.length : from + sizePerThread;
+                    int[] histogram = new int[groupNum];
+                    for (int j = from; j < to; j++)
+                        histogram[groupOfBin[bins.get(j)]]++;
+                    return histogram;
+                }
+            });
+        }
+        // 2. prefix sums of counts as offsets of threads
+        int[][] offsets = new int[threadNum][];
+        int[] groupSizes = new int[groupNum];
+        for (int i = 0; i < threadNum; i++) {
+            offsets[i] = futures[i].get();
+            for (int j = 0; j < groupNum; j++) {
+                int cnt = offsets[i][j];
+                offsets[i][j] = groupSizes[j];
+                groupSizes[j] += cnt;
+            }
+        }
+        int[][] groupKeys = new int[groupNum][];
+        int[][] groupBins = new int[groupNum][];
         for (int i = 0; i < groupNum; i++) {
-            int groupSpan = i > 0 ? (groupEdges[i] - groupEdges[i - 1]) : groupEdges[0];
-            int estimatedGroupSize = (int) Math.ceil(1.0 * keys.length / groupNum * groupSpan);
-            keyLists[i] = new IntArrayList(estimatedGroupSize);
-            binLists[i] = new IntArrayList(estimatedGroupSize);
-        }
-        for (int i = 0; i < keys.length; i++) {
-            int groupIdx = 0;
-            while (groupEdges[groupIdx] <= bins[i]) groupIdx++;
-            keyLists[groupIdx].add(keys[i]);
-            binLists[groupIdx].add(bins[i]);
-        }
-        return new ImmutablePair<>(keyLists, binLists);
+            groupKeys[i] = new int[groupSizes[i]];
+            groupBins[i] = new int[groupSizes[i]];
+        }
+        // 3. each thread scatters items in its range
+        Future<Void>[] scatters = new Future[threadNum];
+        for (int i = 0; i < threadNum; i++) {
+            int threadId = i;
+            scatters[threadId] = threadPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int from = threadId * sizePerThread;
+                    int to = threadId + 1 == threadNum ? keys.length : from + sizePerThread;
+                    scatter(keys, bins, from, to, groupOfBin, offsets[threadId], groupKeys, groupBins);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : scatters)
+            future.get();
+        return new ImmutablePair<>(groupKeys, groupBins);
+    }
+
+    /**
+     * @return group index of each bin, in place of searching group edges for every item
+     */
+    private static int[] groupOfBin(int[] groupEdges) {
+        int[] groupOfBin = new int[groupEdges[groupEdges.length - 1]];
+        int bin = 0;
+        for (int i = 0; i < groupEdges.length; i++) {
+            while (bin < groupEdges[i])
+                groupOfBin[bin++] = i;
+        }
+        return groupOfBin;
+    }
+
+    /**
+     * Scatter items in [from, to) into their groups, starting at `cursors` of each group
+     */
+    private static void scatter(int[] keys, BinArray bins, int from, int to, int[] groupOfBin,
+                                int[] cursors, int[][] groupKeys, int[][] groupBins) {
+        for (int i = from; i < to; i++) {
+            int bin = bins.get(i);
+            int groupIdx = groupOfBin[bin];
+            int cur = cursors[groupIdx]++;
+            groupKeys[groupIdx][cur] = keys[i];
+            groupBins[groupIdx][cur] = bin;
+        }
     }
 
 }
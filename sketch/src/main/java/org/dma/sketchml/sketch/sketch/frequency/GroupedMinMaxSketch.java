@@ -1,12 +1,17 @@
 package org.dma.sketchml.sketch.sketch.frequency;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.dma.sketchml.sketch.base.BinArray;
 import org.dma.sketchml.sketch.base.BinaryEncoder;
-import org.dma.sketchml.sketch.binary.DeltaAdaptiveEncoder;
+import org.dma.sketchml.sketch.base.BufferSerializable;
+import org.dma.sketchml.sketch.base.RandomAccessEncoder;
+import org.dma.sketchml.sketch.base.SketchMLException;
 import org.dma.sketchml.sketch.common.Constants;
 import org.dma.sketchml.sketch.util.Sort;
+import org.dma.sketchml.sketch.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,14 +19,16 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class GroupedMinMaxSketch implements Serializable {
+public class GroupedMinMaxSketch implements Serializable, BufferSerializable {
     private static final Logger LOG = LoggerFactory.getLogger(GroupedMinMaxSketch.class);
 
     private int groupNum;
@@ -29,18 +36,42 @@ public class GroupedMinMaxSketch implements Serializable {
     private double colRatio;
     private int binNum;
     private int zeroValue;
+    private BinaryEncoder.EncoderType keyEncoderType;
+    private BinaryEncoder.EncoderType tableEncoderType;
     private MinMaxSketch[] sketches;
     private BinaryEncoder[] encoders;
+    private boolean blocked; // whether MinMaxSketches are created in cache-line blocks
+    // sketch whose table codebooks may be reused by groups created next, see `reuseCodebooksOf`
+    private transient GroupedMinMaxSketch lastSketch;
+    private transient double codebookReuseTolerance;
 
     public static final int DEFAULT_MINMAXSKETCH_GROUP_NUM = 8;
     public static final double DEFAULT_MINMAXSKETCH_COL_RATIO = 0.3;
+    public static final BinaryEncoder.EncoderType DEFAULT_KEY_ENCODER_TYPE =
+            BinaryEncoder.EncoderType.DELTA_ADAPTIVE;
 
-    public GroupedMinMaxSketch(int groupNum, int rowNum, double colRatio, int binNum, int zeroValue) {
+    public GroupedMinMaxSketch(int groupNum, int rowNum, double colRatio, int binNum, int zeroValue,
+                               BinaryEncoder.EncoderType keyEncoderType,
+                               BinaryEncoder.EncoderType tableEncoderType) {
+        checkKeyEncoderType(keyEncoderType);
+        MinMaxSketch.checkTableEncoderType(tableEncoderType, binNum);
         this.groupNum = groupNum;
         this.rowNum = rowNum;
         this.colRatio = colRatio;
         this.binNum = binNum;
         this.zeroValue = zeroValue;
+        this.keyEncoderType = keyEncoderType;
+        this.tableEncoderType = tableEncoderType;
+    }
+
+    public GroupedMinMaxSketch(int groupNum, int rowNum, double colRatio, int binNum, int zeroValue,
+                               BinaryEncoder.EncoderType keyEncoderType) {
+        this(groupNum, rowNum, colRatio, binNum, zeroValue, keyEncoderType,
+                MinMaxSketch.DEFAULT_TABLE_ENCODER_TYPE);
+    }
+
+    public GroupedMinMaxSketch(int groupNum, int rowNum, double colRatio, int binNum, int zeroValue) {
+        this(groupNum, rowNum, colRatio, binNum, zeroValue, DEFAULT_KEY_ENCODER_TYPE);
     }
 
     public GroupedMinMaxSketch(int binNum, int zeroValue) {
@@ -48,35 +79,40 @@ public class GroupedMinMaxSketch implements Serializable {
                 DEFAULT_MINMAXSKETCH_COL_RATIO, binNum, zeroValue);
     }
 
-    public void create(int[] keys, int[] bins) {
+    /**
+     * Keys are mostly distinct, which rANS cannot code with its bounded frequency table
+     */
+    public static void checkKeyEncoderType(BinaryEncoder.EncoderType keyEncoderType) {
+        if (keyEncoderType == BinaryEncoder.EncoderType.RANS)
+            throw new SketchMLException("RANS cannot be used as key encoder of MinMaxSketch");
+    }
+
+    public void create(int[] keys, BinArray bins) {
         long startTime = System.currentTimeMillis();
         // 1. divide bins into several groups
         int[] groupEdges = FSketchUtils.calGroupEdges(zeroValue, binNum, groupNum);
         sketches = new MinMaxSketch[groupNum];
         encoders = new BinaryEncoder[groupNum];
-        Pair<IntArrayList[], IntArrayList[]> partKBLists =
-                FSketchUtils.partition(keys, bins, groupEdges);
+        Pair<int[][], int[][]> partKBs = FSketchUtils.partition(keys, bins, groupEdges);
         // 2. encode bins and keys
         for (int i = 0; i < groupNum; i++) {
-            IntArrayList keyList = partKBLists.getLeft()[i];
-            IntArrayList binList = partKBLists.getRight()[i];
             Pair<MinMaxSketch, BinaryEncoder> group = compOneGroup(
-                    keyList, binList, groupEdges, i);
+                    partKBs.getLeft()[i], partKBs.getRight()[i], groupEdges, i);
             sketches[i] = group.getLeft();
             encoders[i] = group.getRight();
         }
+        lastSketch = null;
         LOG.debug(String.format("Create grouped MinMaxSketch cost %d ms",
                 System.currentTimeMillis() - startTime));
     }
 
-    public void parallelCreate(int[] keys, int[] bins) throws InterruptedException, ExecutionException {
+    public void parallelCreate(int[] keys, BinArray bins) throws InterruptedException, ExecutionException {
         long startTime = System.currentTimeMillis();
         // 1. divide bins into several groups
         int[] groupEdges = FSketchUtils.calGroupEdges(zeroValue, binNum, groupNum);
         sketches = new MinMaxSketch[groupNum];
         encoders = new BinaryEncoder[groupNum];
-        Pair<IntArrayList[], IntArrayList[]> partKBLists =
-                FSketchUtils.partition(keys, bins, groupEdges);
+        Pair<int[][], int[][]> partKBs = FSketchUtils.parallelPartition(keys, bins, groupEdges);
         // 2. each thread encode one group of bins and keys
         ExecutorService threadPool = Constants.Parallel.getThreadPool();
         Future<Pair<MinMaxSketch, BinaryEncoder>>[] futures = new Future[groupNum];
@@ -85,9 +121,8 @@ public class GroupedMinMaxSketch implements Serializable {
             futures[threadId] = threadPool.submit(new Callable<Pair<MinMaxSketch, BinaryEncoder>>() {
                 @Override
                 public Pair<MinMaxSketch, BinaryEncoder> call() throws Exception {
-                    IntArrayList keyList = partKBLists.getLeft()[threadId];
-                    IntArrayList binList = partKBLists.getRight()[threadId];
-                    return compOneGroup(keyList, binList, groupEdges, threadId);
+                    return compOneGroup(partKBs.getLeft()[threadId], partKBs.getRight()[threadId],
+                            groupEdges, threadId);
                 }
             });
         }
@@ -96,13 +131,14 @@ public class GroupedMinMaxSketch implements Serializable {
             sketches[i] = res.getLeft();
             encoders[i] = res.getRight();
         }
+        lastSketch = null;
         LOG.debug(String.format("Create grouped MinMaxSketch cost %d ms",
                 System.currentTimeMillis() - startTime));
     }
 
-    private Pair<MinMaxSketch, BinaryEncoder> compOneGroup(IntArrayList keyList, IntArrayList binList,
+    private Pair<MinMaxSketch, BinaryEncoder> compOneGroup(int[] groupKeys, int[] groupBins,
                                                            int[] groupEdges, int groupId) {
-        int groupSize = keyList.size();
+        int groupSize = groupKeys.length;
         if (groupSize == 0) {
             LOG.warn(String.format("Group[%d] is empty, group edges: [%d, %d)", groupId,
                     groupId == 0 ? 0 : groupEdges[groupId - 1], groupEdges[groupId]));
@@ -110,65 +146,220 @@ public class GroupedMinMaxSketch implements Serializable {
         }
         // encode bins
         int colNum = (int) Math.ceil(groupSize * colRatio);
-        MinMaxSketch sketch = new MinMaxSketch(rowNum, colNum, zeroValue);
-        for (int j = 0; j < groupSize; j++) {
-            sketch.insert(keyList.getInt(j), binList.getInt(j));
-        }
+        MinMaxSketch sketch = new MinMaxSketch(rowNum, colNum, zeroValue, binNum, tableEncoderType,
+                ThreadLocalRandom.current().nextLong(), blocked);
+        sketch.insert(groupKeys, groupBins, 0, groupSize);
+        if (lastSketch != null && groupId < lastSketch.groupNum && lastSketch.hasGroup(groupId))
+            sketch.reuseCodebookOf(lastSketch.sketches[groupId], codebookReuseTolerance);
         // encode keys
-        BinaryEncoder encoder = new DeltaAdaptiveEncoder();
-        encoder.encode(keyList.toIntArray(null));
+        BinaryEncoder encoder = BinaryEncoder.newEncoder(keyEncoderType);
+        encoder.encode(groupKeys);
         return new ImmutablePair<>(sketch, encoder);
     }
 
-    public Pair<int[], int[]> restore() {
+    public Pair<int[], BinArray> restore() {
+        long startTime = System.currentTimeMillis();
+        // 1. decode each group
+        int[][] groupKeys = new int[groupNum][];
+        BinArray[] groupBins = new BinArray[groupNum];
+        for (int i = 0; i < groupNum; i++) {
+            Pair<int[], BinArray> group = restoreOneGroup(i);
+            groupKeys[i] = group.getLeft();
+            groupBins[i] = group.getRight();
+        }
+        // 2. merge groups by keys
+        Pair<int[], BinArray> res = mergeGroups(groupKeys, groupBins);
+        LOG.debug(String.format("Restore grouped MinMaxSketch cost %d ms",
+                System.currentTimeMillis() - startTime));
+        return res;
+    }
+
+    public Pair<int[], BinArray> parallelRestore() throws InterruptedException, ExecutionException {
+        long startTime = System.currentTimeMillis();
+        // 1. each thread decodes one group of keys and queries their bins
+        ExecutorService threadPool = Constants.Parallel.getThreadPool();
+        Future<Pair<int[], BinArray>>[] futures = new Future[groupNum];
+        for (int i = 0; i < groupNum; i++) {
+            int threadId = i;
+            futures[threadId] = threadPool.submit(new Callable<Pair<int[], BinArray>>() {
+                @Override
+                public Pair<int[], BinArray> call() throws Exception {
+                    return restoreOneGroup(threadId);
+                }
+            });
+        }
+        int[][] groupKeys = new int[groupNum][];
+        BinArray[] groupBins = new BinArray[groupNum];
+        for (int i = 0; i < groupNum; i++) {
+            Pair<int[], BinArray> group = futures[i].get();
+            groupKeys[i] = group.getLeft();
+            groupBins[i] = group.getRight();
+        }
+        // 2. merge groups by keys
+        Pair<int[], BinArray> res = mergeGroups(groupKeys, groupBins);
+        LOG.debug(String.format("Restore grouped MinMaxSketch cost %d ms",
+                System.currentTimeMillis() - startTime));
+        return res;
+    }
+
+    /**
+     * @return sorted keys of a group and their queried bins, empty for an empty group
+     */
+    private Pair<int[], BinArray> restoreOneGroup(int groupId) {
+        if (!hasGroup(groupId))
+            return new ImmutablePair<>(new int[0], BinArray.allocate(0, binNum - 1));
+        int[] keys = encoders[groupId].decode();
+        int[] queried = new int[keys.length];
+        sketches[groupId].query(keys, 0, keys.length, queried);
+        return new ImmutablePair<>(keys, BinArray.of(queried, binNum - 1));
+    }
+
+    private Pair<int[], BinArray> mergeGroups(int[][] groupKeys, BinArray[] groupBins) {
         int size = 0;
-        // decode each group
-        // in case there are empty groups
-        List<int[]> keysToMerge = new ArrayList<>(groupNum);
-        List<int[]> binsToMerge = new ArrayList<>(groupNum);
+        for (int[] keys : groupKeys)
+            size += keys.length;
+        int[] keys = new int[size];
+        BinArray bins = BinArray.allocate(size, binNum - 1);
+        Sort.merge(groupKeys, groupBins, keys, bins);
+        return new ImmutablePair<>(keys, bins);
+    }
+
+    /**
+     * Visit restored (key, bin) pairs in ascending order of keys without materializing
+     * the whole arrays, keys are iterated lazily if encoded by a RandomAccessEncoder
+     */
+    public void forEach(KeyBinConsumer consumer) {
+        // 1. key iterators of non-empty groups
+        List<IntIterator> iters = new ArrayList<>(groupNum);
+        List<MinMaxSketch> groupSketches = new ArrayList<>(groupNum);
         for (int i = 0; i < groupNum; i++) {
             if (encoders[i] != null && sketches[i] != null) {
-                int[] groupKeys = encoders[i].decode();
-                int[] groupBins = new int[groupKeys.length];
-                for (int j = 0; j < groupKeys.length; j++)
-                    groupBins[j] = sketches[i].query(groupKeys[j]);
-                keysToMerge.add(groupKeys);
-                binsToMerge.add(groupBins);
-                size += groupKeys.length;
+                IntIterator iter = encoders[i] instanceof RandomAccessEncoder
+                        ? ((RandomAccessEncoder) encoders[i]).iterator()
+                        : IntArrayList.wrap(encoders[i].decode()).iterator();
+                if (iter.hasNext()) {
+                    iters.add(iter);
+                    groupSketches.add(sketches[i]);
+                }
             }
         }
-        // merge
-        int[] keys = new int[size];
-        int[] bins = new int[size];
-        Sort.merge(keysToMerge.toArray(new int[keysToMerge.size()][]),
-                binsToMerge.toArray(new int[binsToMerge.size()][]), keys, bins);
-        return new ImmutablePair<>(keys, bins);
+        // 2. merge groups by keys, with a heap of groups ordered by their head keys
+        int k = iters.size();
+        int[] heads = new int[k];
+        int[] heap = new int[k];
+        for (int i = 0; i < k; i++) {
+            heads[i] = iters.get(i).nextInt();
+            heap[i] = i;
+        }
+        Sort.heapify(heap, k, heads);
+        int heapSize = k;
+        while (heapSize > 0) {
+            int top = heap[0];
+            int key = heads[top];
+            consumer.accept(key, groupSketches.get(top).query(key));
+            IntIterator iter = iters.get(top);
+            if (iter.hasNext())
+                heads[top] = iter.nextInt();
+            else
+                heap[0] = heap[--heapSize];
+            Sort.siftDown(heap, heapSize, 0, heads);
+        }
     }
 
-    private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.writeInt(groupNum);
-        oos.writeInt(rowNum);
-        oos.writeDouble(colRatio);
-        oos.writeInt(binNum);
-        oos.writeInt(zeroValue);
-        for (MinMaxSketch sketch : sketches)
-            oos.writeObject(sketch);
-        for (BinaryEncoder encoder : encoders)
-            oos.writeObject(encoder);
+    /**
+     * Let table encoders of groups created next reuse the codebooks of the same
+     * groups of `last`, e.g., the sketch of the last iteration, whose bins are
+     * distributed alike if gradients change slowly
+     *
+     * @param last
+     * @param tolerance maximal total variation distance of bin histograms
+     */
+    public void reuseCodebooksOf(GroupedMinMaxSketch last, double tolerance) {
+        this.lastSketch = last;
+        this.codebookReuseTolerance = tolerance;
     }
 
-    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
-        groupNum = ois.readInt();
-        rowNum = ois.readInt();
-        colRatio = ois.readDouble();
-        binNum = ois.readInt();
-        zeroValue = ois.readInt();
+    public interface KeyBinConsumer {
+        void accept(int key, int bin);
+    }
+
+    private boolean hasGroup(int groupId) {
+        return sketches != null && sketches[groupId] != null && encoders[groupId] != null;
+    }
+
+    /**
+     * Layout: [groupNum][rowNum][colRatio][binNum][zeroValue], followed by
+     * [whether non-empty][MinMaxSketch][encoded keys] of each group
+     */
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(groupNum);
+        dst.putInt(rowNum);
+        dst.putDouble(colRatio);
+        dst.putInt(binNum);
+        dst.putInt(zeroValue);
+        for (int i = 0; i < groupNum; i++) {
+            if (hasGroup(i)) {
+                dst.put((byte) 1);
+                sketches[i].writeTo(dst);
+                BinaryEncoder.writeEncoder(encoders[i], dst);
+            } else {
+                dst.put((byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        groupNum = src.getInt();
+        rowNum = src.getInt();
+        colRatio = src.getDouble();
+        binNum = src.getInt();
+        zeroValue = src.getInt();
         sketches = new MinMaxSketch[groupNum];
-        for (int i = 0; i < groupNum; i++)
-            sketches[i] = (MinMaxSketch) ois.readObject();
         encoders = new BinaryEncoder[groupNum];
-        for (int i = 0; i < groupNum; i++)
-            encoders[i] = (BinaryEncoder) ois.readObject();
+        for (int i = 0; i < groupNum; i++) {
+            if (src.get() != 0) {
+                sketches[i] = new MinMaxSketch();
+                sketches[i].readFrom(src);
+                encoders[i] = BinaryEncoder.readEncoder(src);
+                tableEncoderType = sketches[i].getTableEncoderType();
+                keyEncoderType = encoders[i].encoderType();
+            }
+        }
     }
 
+    @Override
+    public int serializedSize() {
+        int res = 24 + groupNum;
+        for (int i = 0; i < groupNum; i++) {
+            if (hasGroup(i))
+                res += sketches[i].serializedSize() + BinaryEncoder.encoderSize(encoders[i]);
+        }
+        return res;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        Utils.writeBuffer(this, oos);
+    }
+
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+        Utils.readBuffer(this, ois);
+    }
+
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    public void setBlocked(boolean blocked) {
+        this.blocked = blocked;
+    }
+
+    public BinaryEncoder.EncoderType getKeyEncoderType() {
+        return keyEncoderType;
+    }
+
+    public BinaryEncoder.EncoderType getTableEncoderType() {
+        return tableEncoderType;
+    }
 }
@@ -1,9 +1,12 @@
 package org.dma.sketchml.sketch.sketch.frequency;
 
+import org.dma.sketchml.sketch.base.BinArray;
 import org.dma.sketchml.sketch.base.BinaryEncoder;
-import org.dma.sketchml.sketch.base.Int2IntHash;
-import org.dma.sketchml.sketch.binary.HuffmanEncoder;
-import org.dma.sketchml.sketch.hash.HashFactory;
+import org.dma.sketchml.sketch.base.BufferSerializable;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.dma.sketchml.sketch.binary.RANSEncoder;
+import org.dma.sketchml.sketch.hash.DoubleHash;
+import org.dma.sketchml.sketch.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,28 +14,88 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class MinMaxSketch implements Serializable {
+public class MinMaxSketch implements Serializable, BufferSerializable {
     private static final Logger LOG = LoggerFactory.getLogger(MinMaxSketch.class);
 
     protected int rowNum;
     protected int colNum;
-    protected int[] table;
+    protected BinArray table;
     protected int zeroValue;
-    protected Int2IntHash[] hashes;
+    // values are in [0, binNum), an empty cell holds the one furthest from `zeroValue`
+    protected int binNum;
+    // hash of each row, derived from a single seed
+    protected DoubleHash hash;
+    protected BinaryEncoder.EncoderType tableEncoderType;
+    // encoded table, reset on insertion
+    protected transient BinaryEncoder tableEncoder;
+    // encoder of a previous table whose codebook may be reused, dropped once the table is encoded
+    private transient BinaryEncoder lastTableEncoder;
+    private transient double codebookReuseTolerance;
+
+    // cells in a cache-line block, which holds all rows of a key, 0 if rows are laid out one by one
+    protected int blockSize;
+    protected transient int blockNum;
+    protected transient int rowSpan;  // cells of each row in a block
 
     public static final int DEFAULT_MINMAXSKETCH_ROW_NUM = 2;
+    public static final BinaryEncoder.EncoderType DEFAULT_TABLE_ENCODER_TYPE =
+            BinaryEncoder.EncoderType.CANONICAL_HUFFMAN;
+    private static final int CACHE_LINE_BYTES = 64;
+    private static final int BATCH_SIZE = 256; // keys hashed ahead of touching the table
 
-    public MinMaxSketch(int rowNum, int colNum, int zeroValue) {
+    /**
+     * @param blocked whether cells of all rows of a key are in one 64-byte block, as in
+     *                blocked Bloom filters, so that each key touches one cache line
+     *                instead of `rowNum`, at the cost of a few more collisions
+     */
+    public MinMaxSketch(int rowNum, int colNum, int zeroValue, int binNum,
+                        BinaryEncoder.EncoderType tableEncoderType, long seed, boolean blocked) {
+        checkTableEncoderType(tableEncoderType, binNum);
         this.rowNum = rowNum;
         this.colNum = colNum;
-        this.table = new int[rowNum * colNum];
+        this.binNum = binNum;
         this.zeroValue = zeroValue;
-        int maxValue = compare(Integer.MIN_VALUE, Integer.MAX_VALUE) <= 0
-                ? Integer.MIN_VALUE : Integer.MAX_VALUE;
-        Arrays.fill(table, maxValue);
-        this.hashes = HashFactory.getRandomInt2IntHashes(rowNum, colNum);
+        this.tableEncoderType = tableEncoderType;
+        this.blockSize = blocked ? CACHE_LINE_BYTES / BinArray.itemBytes(binNum - 1) : 0;
+        if (blockSize > 0 && blockSize < rowNum)
+            throw new SketchMLException(String.format(
+                    "Too many rows for a block of %d cells: %d", blockSize, rowNum));
+        initLayout();
+        this.table = BinArray.allocate(
+                blockSize > 0 ? blockNum * blockSize : rowNum * colNum, binNum - 1);
+        // any insertion replaces a value no closer to `zeroValue`, so it also marks empty cells
+        table.fill(binNum - 1 - zeroValue >= zeroValue ? binNum - 1 : 0);
+        this.hash = new DoubleHash(seed, colNum);
+    }
+
+    public MinMaxSketch(int rowNum, int colNum, int zeroValue, int binNum,
+                        BinaryEncoder.EncoderType tableEncoderType, long seed) {
+        this(rowNum, colNum, zeroValue, binNum, tableEncoderType, seed, false);
+    }
+
+    public MinMaxSketch(int rowNum, int colNum, int zeroValue, int binNum,
+                        BinaryEncoder.EncoderType tableEncoderType) {
+        this(rowNum, colNum, zeroValue, binNum, tableEncoderType,
+                ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Table of int values in [0, Integer.MAX_VALUE), negative values are rejected by `insert`
+     */
+    public MinMaxSketch(int rowNum, int colNum, int zeroValue,
+                        BinaryEncoder.EncoderType tableEncoderType) {
+        this(rowNum, colNum, zeroValue, Integer.MAX_VALUE, tableEncoderType);
+    }
+
+    // for deserialization
+    MinMaxSketch() {
+    }
+
+    public MinMaxSketch(int rowNum, int colNum, int zeroValue) {
+        this(rowNum, colNum, zeroValue, DEFAULT_TABLE_ENCODER_TYPE);
     }
 
     public MinMaxSketch(int colNum, int zeroValue) {
@@ -40,17 +103,67 @@ public class MinMaxSketch implements Serializable {
     }
 
     /**
-     * Min: insert the minimal (closest to `zeroValue`) value
+     * Whether a table of values in [0, binNum) can be encoded by the encoder. The
+     * table is unsorted, so delta-based encoders of sorted keys do not apply, and
+     * rANS is limited by the size of its frequency table.
+     */
+    public static boolean isTableEncoderSupported(BinaryEncoder.EncoderType tableEncoderType, int binNum) {
+        if (tableEncoderType == null)
+            return true;
+        switch (tableEncoderType) {
+            case HUFFMAN:
+            case CANONICAL_HUFFMAN:
+            case BIT_PACKING:
+                return true;
+            case RANS:
+                return binNum <= RANSEncoder.MAX_SYMBOL_NUM;
+            default:
+                return false;
+        }
+    }
+
+    public static void checkTableEncoderType(BinaryEncoder.EncoderType tableEncoderType, int binNum) {
+        if (!isTableEncoderSupported(tableEncoderType, binNum))
+            throw new SketchMLException(String.format(
+                    "%s cannot be used as table encoder of MinMaxSketch with %d bins",
+                    tableEncoderType, binNum));
+    }
+
+    private void initLayout() {
+        if (blockSize > 0) {
+            blockNum = (int) (((long) rowNum * colNum + blockSize - 1) / blockSize);
+            rowSpan = blockSize / rowNum;
+        }
+    }
+
+    /**
+     * @return index of the cell in `row` for a key of hash `mix`
+     */
+    private int cellOf(long mix, int row) {
+        if (blockSize == 0) {
+            return row * colNum + hash.hash(mix, row);
+        } else {
+            int block = DoubleHash.reduce((int) (mix >>> 32), blockNum);
+            return block * blockSize + row * rowSpan
+                    + DoubleHash.reduce(DoubleHash.code(mix, row + 1), rowSpan);
+        }
+    }
+
+    /**
+     * Min: insert the minimal (closest to `zeroValue`) value, which replaces
+     * a value at the same distance
      *
      * @param key
-     * @param value
+     * @param value in [0, binNum)
      */
     public void insert(int key, int value) {
+        checkValue(value);
+        tableEncoder = null;
+        long mix = hash.mix(key);
         for (int i = 0; i < rowNum; i++) {
-            int code = hashes[i].hash(key);
-            int index = i * colNum + code;
-            if (compare(value, table[index]) < 0)
-                table[index] = value;
+            int index = cellOf(mix, i);
+            if (compare(value, table.get(index)) <= 0)
+                table.set(index, value);
         }
     }
 
@@ -63,15 +176,90 @@ public class MinMaxSketch implements Serializable {
      */
     public int query(int key) {
         int res = zeroValue;
+        long mix = hash.mix(key);
         for (int i = 0; i < rowNum; i++) {
-            int code = hashes[i].hash(key);
-            int index = i * colNum + code;
-            if (compare(table[index], res) > 0)
-                res = table[index];
+            int index = cellOf(mix, i);
+            int cur = table.get(index);
+            if (compare(cur, res) > 0)
+                res = cur;
         }
         return res;
     }
 
+    /**
+     * Cells of keys[from, to) in all rows, `rowNum` for each key
+     */
+    private void cellsOf(int[] keys, int from, int to, int[] cells) {
+        int cur = 0;
+        for (int i = from; i < to; i++) {
+            long mix = hash.mix(keys[i]);
+            for (int j = 0; j < rowNum; j++)
+                cells[cur++] = cellOf(mix, j);
+        }
+    }
+
+    /**
+     * Insert keys[i] with values[i] in [0, binNum) for i in [from, to). Keys are hashed in
+     * batches before the table is visited, then cells of a batch are updated
+     * in order, so that an update still sees the previous ones.
+     */
+    public void insert(int[] keys, int[] values, int from, int to) {
+        tableEncoder = null;
+        if (to <= from) return;
+        int[] cells = new int[Math.min(BATCH_SIZE, to - from) * rowNum];
+        for (int start = from; start < to; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, to);
+            // 1. compute cells of the batch
+            cellsOf(keys, start, end, cells);
+            // 2. read-modify-write the cells of each key
+            int cur = 0;
+            for (int i = start; i < end; i++) {
+                int value = values[i];
+                checkValue(value);
+                for (int j = 0; j < rowNum; j++) {
+                    int index = cells[cur++];
+                    if (compare(value, table.get(index)) <= 0)
+                        table.set(index, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Query keys[i] into outBins[i] for i in [from, to). Keys are hashed in
+     * batches before the table is visited, and cells of a batch are gathered
+     * in a tight loop, so that their loads are independent and in flight together.
+     */
+    public void query(int[] keys, int from, int to, int[] outBins) {
+        if (to <= from) return;
+        int[] cells = new int[Math.min(BATCH_SIZE, to - from) * rowNum];
+        int[] values = new int[cells.length];
+        for (int start = from; start < to; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, to);
+            // 1. compute cells of the batch
+            cellsOf(keys, start, end, cells);
+            // 2. gather from the table
+            table.gather(cells, (end - start) * rowNum, values);
+            // 3. take the maximal value of each key
+            int cur = 0;
+            for (int i = start; i < end; i++) {
+                int res = zeroValue;
+                for (int j = 0; j < rowNum; j++) {
+                    int value = values[cur++];
+                    if (compare(value, res) > 0)
+                        res = value;
+                }
+                outBins[i] = res;
+            }
+        }
+    }
+
+    private void checkValue(int value) {
+        if (value < 0 || value >= binNum)
+            throw new SketchMLException(String.format(
+                    "Value out of range [0, %d) of MinMaxSketch: %d", binNum, value));
+    }
+
     /**
      * Compare two numbers' distances w.r.t. `zeroValue`
      *
@@ -85,26 +273,71 @@ public class MinMaxSketch implements Serializable {
         return d1 - d2;
     }
 
+    private BinaryEncoder getTableEncoder() {
+        if (tableEncoder == null) {
+            tableEncoder = BinaryEncoder.newEncoder(tableEncoderType == null
+                    ? DEFAULT_TABLE_ENCODER_TYPE : tableEncoderType);
+            if (lastTableEncoder != null) {
+                tableEncoder.reuseCodebookOf(lastTableEncoder, codebookReuseTolerance);
+                lastTableEncoder = null;
+            }
+            tableEncoder.encode(table);
+        }
+        return tableEncoder;
+    }
+
+    /**
+     * Let the table reuse the codebook that `last` has encoded its table with, e.g.,
+     * a sketch of the same group in the last iteration, see `BinaryEncoder.reuseCodebookOf`.
+     * Nothing is reused if `last` has not been encoded.
+     *
+     * @param last
+     * @param tolerance
+     */
+    public void reuseCodebookOf(MinMaxSketch last, double tolerance) {
+        lastTableEncoder = last == null ? null : last.tableEncoder;
+        codebookReuseTolerance = tolerance;
+    }
+
+    /**
+     * Layout: [rowNum][colNum][zeroValue][binNum][blockSize][hash seed][encoded table]
+     */
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(rowNum);
+        dst.putInt(colNum);
+        dst.putInt(zeroValue);
+        dst.putInt(binNum);
+        dst.putInt(blockSize);
+        dst.putLong(hash.getSeed());
+        BinaryEncoder.writeEncoder(getTableEncoder(), dst);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer src) {
+        rowNum = src.getInt();
+        colNum = src.getInt();
+        zeroValue = src.getInt();
+        binNum = src.getInt();
+        blockSize = src.getInt();
+        initLayout();
+        hash = new DoubleHash(src.getLong(), colNum);
+        tableEncoder = BinaryEncoder.readEncoder(src);
+        tableEncoderType = tableEncoder.encoderType();
+        table = tableEncoder.decodeBins(binNum - 1);
+    }
+
+    @Override
+    public int serializedSize() {
+        return 28 + BinaryEncoder.encoderSize(getTableEncoder());
+    }
+
     private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.writeInt(rowNum);
-        oos.writeInt(colNum);
-        oos.writeInt(zeroValue);
-        for (Int2IntHash hash : hashes)
-            oos.writeObject(hash);
-        BinaryEncoder huffman = new HuffmanEncoder();
-        huffman.encode(table);
-        oos.writeObject(huffman);
+        Utils.writeBuffer(this, oos);
     }
 
     private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
-        rowNum = ois.readInt();
-        colNum = ois.readInt();
-        zeroValue = ois.readInt();
-        hashes = new Int2IntHash[rowNum];
-        for (int i = 0; i < rowNum; i++)
-            hashes[i] = (Int2IntHash) ois.readObject();
-        BinaryEncoder encoder = (BinaryEncoder) ois.readObject();
-        table = encoder.decode();
+        Utils.readBuffer(this, ois);
     }
 
     public int getRowNum() {
@@ -118,4 +351,16 @@ public class MinMaxSketch implements Serializable {
     public int getZeroValue() {
         return zeroValue;
     }
+
+    public int getBinNum() {
+        return binNum;
+    }
+
+    public boolean isBlocked() {
+        return blockSize > 0;
+    }
+
+    public BinaryEncoder.EncoderType getTableEncoderType() {
+        return tableEncoderType;
+    }
 }
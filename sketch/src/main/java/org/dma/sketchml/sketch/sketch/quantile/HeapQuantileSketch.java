@@ -1,6 +1,7 @@
 package org.dma.sketchml.sketch.sketch.quantile;
 
 import org.dma.sketchml.sketch.base.QuantileSketch;
+import org.dma.sketchml.sketch.base.ValueArray;
 
 import java.util.Arrays;
 
@@ -85,6 +86,41 @@ public class HeapQuantileSketch extends QuantileSketch {
             fullBaseBufferPropagation();
     }
 
+    /**
+     * Bulk update with values[from, to). Values are copied into the base buffer
+     * block by block, each full block is sorted and propagated at once.
+     */
+    @Override
+    public void update(ValueArray values, int from, int to) {
+        double min = minValue, max = maxValue;
+        int i = from;
+        while (i < to) {
+            int len = Math.min(k * 2 - baseBufferCount, to - i);
+            while (baseBufferCount + len > combinedBufferCapacity)
+                ensureBaseBuffer();
+            // 1. copy a block, fold min and max over the copied values
+            final double[] baseBuffer = combinedBuffer;
+            values.copyTo(i, i + len, baseBuffer, baseBufferCount);
+            for (int j = baseBufferCount; j < baseBufferCount + len; j++) {
+                double v = baseBuffer[j];
+                if (Double.isNaN(v))
+                    throw new QuantileSketchException("Encounter NaN value");
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            baseBufferCount += len;
+            n += len;
+            i += len;
+            minValue = min;
+            maxValue = max;
+            // 2. sort and propagate the full base buffer
+            if (baseBufferCount == (k * 2))
+                fullBaseBufferPropagation();
+        }
+        samplesArr = null;
+        weightsArr = null;
+    }
+
     private void ensureBaseBuffer() {
         final double[] baseBuffer = combinedBuffer;
         int oldSize = combinedBufferCapacity;
@@ -195,9 +231,7 @@ public class HeapQuantileSketch extends QuantileSketch {
 
         // merge two non-empty quantile sketches
         long totalN = this.n + other.n;
-        for (int i = 0; i  < other.baseBufferCount; i++) {
-            update(other.combinedBuffer[i]);
-        }
+        update(other.combinedBuffer, 0, other.baseBufferCount);
         ensureLevels(totalN);
 
         final double[] auxBuf = new double[k * 2];
@@ -0,0 +1,369 @@
+package org.dma.sketchml.sketch.sketch.quantile;
+
+import org.dma.sketchml.sketch.base.QuantileSketch;
+import org.dma.sketchml.sketch.base.ValueArray;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * KLL quantile sketch (Karnin, Lang and Liberty, 2016) on the Java heap
+ *
+ * Items are kept in a stack of compactors, an item on level `h` stands for
+ * 2^h input items. Capacity of level `h` decreases geometrically from the top
+ * one by a factor of 2/3, and is at least `MIN_CAPACITY`. When the sketch is
+ * full, the lowest level exceeding its capacity is sorted, and either the items
+ * at even or at odd positions are promoted to the level above, chosen at random.
+ */
+public class KLLQuantileSketch extends QuantileSketch {
+    private int k; // capacity of the top level, which controls space usage
+    public static final int DEFAULT_K = 200;
+    private static final int MIN_CAPACITY = 8;
+    private static final int INIT_LEVEL_CAPACITY = 16;
+
+    private int numLevels;
+    private double[][] levels;  // levels[0] is unsorted, the others are sorted
+    private int[] levelSizes;
+    private int totalSize;      // number of items in all levels
+    private int[] capacities;
+    private int totalCapacity;  // sum of capacities of all levels
+
+    /**
+     * data structure for answering quantile queries
+     */
+    private double[] samplesArr;
+    private long[] weightsArr;  // cumulative weights of samples before each one
+
+    public KLLQuantileSketch(int k, long estimateN) {
+        super(estimateN);
+        if (k < MIN_CAPACITY)
+            throw new QuantileSketchException("k must be no less than " + MIN_CAPACITY + ": " + k);
+        this.k = k;
+        reset();
+    }
+
+    public KLLQuantileSketch() {
+        this(DEFAULT_K, -1L);
+    }
+
+    public KLLQuantileSketch(int k) {
+        this(k, -1L);
+    }
+
+    public KLLQuantileSketch(long estimateN) {
+        this(DEFAULT_K, estimateN);
+    }
+
+    @Override
+    public void reset() {
+        n = 0;
+        numLevels = 1;
+        levels = new double[1][];
+        levelSizes = new int[1];
+        levels[0] = new double[estimateN > 0 ? (int) Math.min(estimateN, k) : INIT_LEVEL_CAPACITY];
+        totalSize = 0;
+        updateCapacities();
+        minValue = Double.MAX_VALUE;
+        maxValue = -Double.MAX_VALUE;
+        samplesArr = null;
+        weightsArr = null;
+    }
+
+    @Override
+    public void update(double value) {
+        if (Double.isNaN(value))
+            throw new QuantileSketchException("Encounter NaN value");
+        maxValue = Math.max(maxValue, value);
+        minValue = Math.min(minValue, value);
+
+        if (levelSizes[0] == levels[0].length)
+            levels[0] = Arrays.copyOf(levels[0], levels[0].length * 2);
+        levels[0][levelSizes[0]++] = value;
+        totalSize++;
+        n++;
+        if (totalSize >= totalCapacity)
+            compress();
+        samplesArr = null;
+        weightsArr = null;
+    }
+
+    @Override
+    public void update(ValueArray values, int from, int to) {
+        double min = minValue, max = maxValue;
+        int i = from;
+        while (i < to) {
+            int len = Math.min(totalCapacity - totalSize, to - i);
+            if (levelSizes[0] + len > levels[0].length)
+                levels[0] = Arrays.copyOf(levels[0], Math.max(levelSizes[0] + len, levels[0].length * 2));
+            final double[] level0 = levels[0];
+            int size0 = levelSizes[0];
+            values.copyTo(i, i + len, level0, size0);
+            for (int j = size0; j < size0 + len; j++) {
+                double v = level0[j];
+                if (Double.isNaN(v))
+                    throw new QuantileSketchException("Encounter NaN value");
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            levelSizes[0] += len;
+            totalSize += len;
+            n += len;
+            i += len;
+            minValue = min;
+            maxValue = max;
+            if (totalSize >= totalCapacity)
+                compress();
+        }
+        samplesArr = null;
+        weightsArr = null;
+    }
+
+    /**
+     * @return capacity of level `h` w.r.t. current number of levels
+     */
+    private int capacity(int h) {
+        int depth = numLevels - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void updateCapacities() {
+        capacities = new int[numLevels];
+        totalCapacity = 0;
+        for (int h = 0; h < numLevels; h++) {
+            capacities[h] = capacity(h);
+            totalCapacity += capacities[h];
+        }
+    }
+
+    private void compress() {
+        while (totalSize >= totalCapacity) {
+            for (int h = 0; h < numLevels; h++) {
+                if (levelSizes[h] >= capacities[h]) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        levelSizes = Arrays.copyOf(levelSizes, numLevels + 1);
+        levels[numLevels] = new double[0];
+        numLevels++;
+        updateCapacities();
+    }
+
+    /**
+     * Promote half of the items on level `h` to level `h + 1`, one item
+     * is left if the number of items is odd
+     */
+    private void compact(int h) {
+        if (h + 1 == numLevels)
+            addLevel();
+        double[] level = levels[h];
+        int size = levelSizes[h];
+        if (h == 0)
+            Arrays.sort(level, 0, size);
+        int from = size & 1;
+        int half = (size - from) >>> 1;
+        double[] promoted = new double[half];
+        int offset = from + (ThreadLocalRandom.current().nextBoolean() ? 1 : 0);
+        for (int i = 0; i < half; i++)
+            promoted[i] = level[offset + 2 * i];
+        // merge into the sorted upper level
+        double[] upper = levels[h + 1];
+        int upperSize = levelSizes[h + 1];
+        double[] merged = new double[Math.max(upperSize + half, capacities[h + 1])];
+        mergeSorted(upper, upperSize, promoted, half, merged);
+        levels[h + 1] = merged;
+        levelSizes[h + 1] = upperSize + half;
+        levelSizes[h] = from;
+        totalSize -= half;
+    }
+
+    private static void mergeSorted(double[] a, int aSize, double[] b, int bSize, double[] res) {
+        int i = 0, j = 0, cur = 0;
+        while (i < aSize && j < bSize)
+            res[cur++] = a[i] <= b[j] ? a[i++] : b[j++];
+        while (i < aSize)
+            res[cur++] = a[i++];
+        while (j < bSize)
+            res[cur++] = b[j++];
+    }
+
+    @Override
+    public void merge(QuantileSketch other) {
+        if (other instanceof KLLQuantileSketch) {
+            merge((KLLQuantileSketch) other);
+        } else {
+            throw new QuantileSketchException("Cannot merge different " +
+                    "kinds of quantile sketches");
+        }
+    }
+
+    public void merge(KLLQuantileSketch other) {
+        if (other == null || other.isEmpty()) return;
+        if (other.k != this.k)
+            throw new QuantileSketchException("Merge sketches with different k");
+        while (numLevels < other.numLevels)
+            addLevel();
+        // 1. append items of level 0
+        int size0 = levelSizes[0] + other.levelSizes[0];
+        if (size0 > levels[0].length)
+            levels[0] = Arrays.copyOf(levels[0], size0);
+        System.arraycopy(other.levels[0], 0, levels[0], levelSizes[0], other.levelSizes[0]);
+        levelSizes[0] = size0;
+        // 2. merge sorted upper levels
+        for (int h = 1; h < other.numLevels; h++) {
+            int otherSize = other.levelSizes[h];
+            if (otherSize == 0) continue;
+            double[] merged = new double[levelSizes[h] + otherSize];
+            mergeSorted(levels[h], levelSizes[h], other.levels[h], otherSize, merged);
+            levels[h] = merged;
+            levelSizes[h] += otherSize;
+        }
+        totalSize += other.totalSize;
+        this.n += other.n;
+        this.maxValue = Math.max(this.maxValue, other.maxValue);
+        this.minValue = Math.min(this.minValue, other.minValue);
+        compress();
+        this.samplesArr = null;
+        this.weightsArr = null;
+    }
+
+    public void makeSummary() {
+        // merge levels from the top, each item carries the weight of its level
+        double[] samples = new double[0];
+        long[] weights = new long[0];
+        for (int h = numLevels - 1; h >= 0; h--) {
+            int size = levelSizes[h];
+            if (size == 0) continue;
+            double[] level = Arrays.copyOf(levels[h], size);
+            if (h == 0)
+                Arrays.sort(level);
+            double[] mergedSamples = new double[samples.length + size];
+            long[] mergedWeights = new long[samples.length + size];
+            long weight = 1L << h;
+            int i = 0, j = 0, cur = 0;
+            while (i < samples.length && j < size) {
+                if (samples[i] <= level[j]) {
+                    mergedSamples[cur] = samples[i];
+                    mergedWeights[cur++] = weights[i++];
+                } else {
+                    mergedSamples[cur] = level[j++];
+                    mergedWeights[cur++] = weight;
+                }
+            }
+            while (i < samples.length) {
+                mergedSamples[cur] = samples[i];
+                mergedWeights[cur++] = weights[i++];
+            }
+            while (j < size) {
+                mergedSamples[cur] = level[j++];
+                mergedWeights[cur++] = weight;
+            }
+            samples = mergedSamples;
+            weights = mergedWeights;
+        }
+        samplesArr = samples;
+        weightsArr = new long[samples.length + 1];
+        long cnt = 0L;
+        for (int i = 0; i < samples.length; i++) {
+            weightsArr[i] = cnt;
+            cnt += weights[i];
+        }
+        weightsArr[samples.length] = cnt;
+    }
+
+    @Override
+    public double getQuantile(double fraction) {
+        QSketchUtils.checkFraction(fraction);
+        if (samplesArr == null || weightsArr == null)
+            makeSummary();
+
+        if (samplesArr.length == 0)
+            return Double.NaN;
+
+        if (fraction == 0.0)
+            return minValue;
+        else if (fraction == 1.0)
+            return maxValue;
+        else
+            return samplesArr[search(rankOf(fraction), 0)];
+    }
+
+    @Override
+    public double[] getQuantiles(double[] fractions) {
+        QSketchUtils.checkFractions(fractions);
+        if (samplesArr == null || weightsArr == null)
+            makeSummary();
+
+        double[] res = new double[fractions.length];
+        if (samplesArr.length == 0) {
+            Arrays.fill(res, Double.NaN);
+            return res;
+        }
+
+        for (int i = 0; i < fractions.length; i++) {
+            if (fractions[i] == 0.0)
+                res[i] = minValue;
+            else if (fractions[i] == 1.0)
+                res[i] = maxValue;
+            else
+                res[i] = samplesArr[search(rankOf(fractions[i]), 0)];
+        }
+        return res;
+    }
+
+    @Override
+    public double[] getQuantiles(int evenPartition) {
+        QSketchUtils.checkEvenPartiotion(evenPartition);
+        if (samplesArr == null || weightsArr == null)
+            makeSummary();
+
+        double[] splits = new double[evenPartition - 1];
+        if (samplesArr.length == 0) {
+            Arrays.fill(splits, Double.NaN);
+            return splits;
+        }
+
+        int index = 0;
+        for (int i = 0; i + 1 < evenPartition; i++) {
+            index = search(rankOf((i + 1.0) / evenPartition), index);
+            splits[i] = samplesArr[index];
+        }
+        return splits;
+    }
+
+    /**
+     * Rank w.r.t. the total weight of samples, which equals `n`
+     */
+    private long rankOf(double fraction) {
+        long total = weightsArr[samplesArr.length];
+        return Math.min((long) (total * fraction), total - 1);
+    }
+
+    /**
+     * @return the last sample whose cumulative weight before it is no more than `rank`
+     */
+    private int search(long rank, int from) {
+        int left = from, right = weightsArr.length - 1;
+        while (left + 1 < right) {
+            int mid = left + ((right - left) >> 1);
+            if (weightsArr[mid] <= rank)
+                left = mid;
+            else
+                right = mid;
+        }
+        return left;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getNumRetained() {
+        return totalSize;
+    }
+}
@@ -27,6 +27,23 @@ public class Maths {
         return res;
     }
 
+    /**
+     * @return number of items in sorted[0, size) no more than `x`
+     */
+    public static int upperBound(double[] sorted, int size, double x) {
+        int lo = 0, len = size;
+        while (len > 0) {
+            int half = len >>> 1;
+            if (sorted[lo + half] <= x) {
+                lo += half + 1;
+                len -= half + 1;
+            } else {
+                len = half;
+            }
+        }
+        return lo;
+    }
+
     public static int argmax(int[] array) {
         int max = array[0], res = 0;
         for (int i = 1; i < array.length; i++) {
@@ -4,6 +4,7 @@ import it.unimi.dsi.fastutil.doubles.DoubleArrayPriorityQueue;
 import it.unimi.dsi.fastutil.doubles.DoubleComparator;
 import it.unimi.dsi.fastutil.doubles.DoublePriorityQueue;
 import it.unimi.dsi.fastutil.ints.IntComparator;
+import org.dma.sketchml.sketch.base.BinArray;
 import org.dma.sketchml.sketch.base.SketchMLException;
 
 /**
@@ -359,39 +360,103 @@ public class Sort {
         }
     }
 
+    /**
+     * Merge sorted arrays `as` into `a`, and move items of `ys` along with them into `y`.
+     * Heads of arrays are kept in a binary heap, so that it costs O(n log k) for k arrays.
+     */
     public static void merge(int[][] as, int[][] ys, int[] a, int[] y) {
         int[] ks = new int[as.length];
-        int cur = 0;
-        while (cur < a.length) {
-            int argmin = -1;
-            int min = Integer.MAX_VALUE;
-            for (int i = 0; i < ks.length; i++) {
-                if (ks[i] < as[i].length && as[i][ks[i]] < min) {
-                    argmin = i;
-                    min = as[i][ks[i]];
-                }
-            }
-            a[cur] = as[argmin][ks[argmin]];
-            y[cur] = ys[argmin][ks[argmin]];
-            ks[argmin]++;
-            cur++;
+        int[] heads = new int[as.length];
+        int[] heap = new int[as.length];
+        int heapSize = initHeads(as, heads, heap);
+        for (int cur = 0; heapSize > 0; cur++) {
+            int top = heap[0];
+            a[cur] = heads[top];
+            y[cur] = ys[top][ks[top]];
+            heapSize = advance(as, ks, heads, heap, heapSize);
         }
     }
 
     public static void merge(int[][] as, double[][] ys, int[] a, double[] y) {
         int[] ks = new int[as.length];
-        int cur = 0;
-        while (cur < a.length) {
-            int argmin = -1;
-            int min = Integer.MAX_VALUE;
-            for (int i = 0; i < ks.length; i++) {
-                if (ks[i] < as[i].length && as[i][ks[i]] < min)
-                    argmin = i;
+        int[] heads = new int[as.length];
+        int[] heap = new int[as.length];
+        int heapSize = initHeads(as, heads, heap);
+        for (int cur = 0; heapSize > 0; cur++) {
+            int top = heap[0];
+            a[cur] = heads[top];
+            y[cur] = ys[top][ks[top]];
+            heapSize = advance(as, ks, heads, heap, heapSize);
+        }
+    }
+
+    public static void merge(int[][] as, BinArray[] ys, int[] a, BinArray y) {
+        int[] ks = new int[as.length];
+        int[] heads = new int[as.length];
+        int[] heap = new int[as.length];
+        int heapSize = initHeads(as, heads, heap);
+        for (int cur = 0; heapSize > 0; cur++) {
+            int top = heap[0];
+            a[cur] = heads[top];
+            y.set(cur, ys[top].get(ks[top]));
+            heapSize = advance(as, ks, heads, heap, heapSize);
+        }
+    }
+
+    /**
+     * Put ids of non-empty arrays into a heap ordered by their first items
+     *
+     * @return size of the heap
+     */
+    private static int initHeads(int[][] as, int[] heads, int[] heap) {
+        int heapSize = 0;
+        for (int i = 0; i < as.length; i++) {
+            if (as[i].length > 0) {
+                heads[i] = as[i][0];
+                heap[heapSize++] = i;
             }
-            a[cur] = as[argmin][ks[argmin]];
-            y[cur] = ys[argmin][ks[argmin]];
-            ks[argmin]++;
-            cur++;
         }
+        heapify(heap, heapSize, heads);
+        return heapSize;
+    }
+
+    /**
+     * Move the array on top of the heap to its next item, and drop it if exhausted
+     *
+     * @return size of the heap
+     */
+    private static int advance(int[][] as, int[] ks, int[] heads, int[] heap, int heapSize) {
+        int top = heap[0];
+        if (++ks[top] < as[top].length)
+            heads[top] = as[top][ks[top]];
+        else
+            heap[0] = heap[--heapSize];
+        siftDown(heap, heapSize, 0, heads);
+        return heapSize;
+    }
+
+    /**
+     * Build a min-heap of ids in heap[0, size), ordered by heads[id]
+     */
+    public static void heapify(int[] heap, int size, int[] heads) {
+        for (int i = size / 2 - 1; i >= 0; i--)
+            siftDown(heap, size, i, heads);
+    }
+
+    public static void siftDown(int[] heap, int size, int pos, int[] heads) {
+        int id = heap[pos];
+        int head = heads[id];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && heads[heap[child + 1]] < heads[heap[child]])
+                child++;
+            if (heads[heap[child]] >= head)
+                break;
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = id;
     }
 }
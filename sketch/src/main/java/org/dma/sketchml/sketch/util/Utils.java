@@ -1,6 +1,9 @@
 package org.dma.sketchml.sketch.util;
 
+import org.dma.sketchml.sketch.base.BufferSerializable;
+
 import java.io.*;
+import java.nio.ByteBuffer;
 
 public class Utils {
     public static int sizeof(Object obj) throws IOException {
@@ -25,4 +28,29 @@ public class Utils {
         ObjectInputStream inputStream = new ObjectInputStream(byteArrayInputStream);
         return (Serializable) inputStream.readObject();
     }
+
+    public static byte[] toBytes(BufferSerializable obj) {
+        ByteBuffer buf = ByteBuffer.allocate(obj.serializedSize());
+        obj.writeTo(buf);
+        return buf.array();
+    }
+
+    /**
+     * Write the compact format of `obj` to a Java serialization stream
+     *
+     * @param obj
+     * @param oos
+     * @throws IOException
+     */
+    public static void writeBuffer(BufferSerializable obj, ObjectOutputStream oos) throws IOException {
+        byte[] bytes = toBytes(obj);
+        oos.writeInt(bytes.length);
+        oos.write(bytes);
+    }
+
+    public static void readBuffer(BufferSerializable obj, ObjectInputStream ois) throws IOException {
+        byte[] bytes = new byte[ois.readInt()];
+        ois.readFully(bytes);
+        obj.readFrom(ByteBuffer.wrap(bytes));
+    }
 }
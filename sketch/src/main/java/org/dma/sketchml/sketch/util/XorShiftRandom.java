@@ -0,0 +1,36 @@
+package org.dma.sketchml.sketch.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Xorshift64* generator (Vigna, 2014), which is not thread-safe and
+ * should be owned by a single thread
+ */
+public class XorShiftRandom {
+    private long state;
+
+    public XorShiftRandom(long seed) {
+        // the state must be non-zero
+        this.state = seed != 0L ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    public XorShiftRandom() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    public long nextLong() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * @return a uniform value in [0, 1) from the high 53 bits
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
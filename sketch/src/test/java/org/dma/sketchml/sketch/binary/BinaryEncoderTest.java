@@ -0,0 +1,126 @@
+package org.dma.sketchml.sketch.binary;
+
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.util.Utils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BinaryEncoderTest {
+    private static final int N = 10000;
+    private static final int BIN_NUM = 256;
+
+    /**
+     * Delta-based encoders code sorted non-negative keys
+     */
+    private static boolean isKeyEncoder(BinaryEncoder.EncoderType type) {
+        switch (type) {
+            case DELTA_BINARY:
+            case DELTA_ADAPTIVE:
+            case PFOR_DELTA:
+            case ELIAS_FANO:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int[] sortedKeys(Random random, int n) {
+        int[] keys = new int[n];
+        int key = 0;
+        for (int i = 0; i < n; i++) {
+            key += 1 + (i % 100 == 0 ? random.nextInt(100000) : random.nextInt(20));
+            keys[i] = key;
+        }
+        return keys;
+    }
+
+    private static int[] skewedBins(Random random, int n) {
+        int[] bins = new int[n];
+        for (int i = 0; i < n; i++)
+            bins[i] = Math.max(0, Math.min(BIN_NUM - 1,
+                    BIN_NUM / 2 + (int) (random.nextGaussian() * 16)));
+        return bins;
+    }
+
+    private static int[] valuesOf(BinaryEncoder.EncoderType type, Random random, int n) {
+        return isKeyEncoder(type) ? sortedKeys(random, n) : skewedBins(random, n);
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        Random random = new Random(17);
+        for (BinaryEncoder.EncoderType type : BinaryEncoder.EncoderType.values()) {
+            for (int n : new int[]{1, 100, N}) {
+                int[] values = valuesOf(type, random, n);
+                BinaryEncoder encoder = BinaryEncoder.newEncoder(type);
+                encoder.encode(values);
+                assertArrayEquals(type + " of " + n, values, encoder.decode());
+                // Java serialization goes through writeTo and readFrom
+                BinaryEncoder copy = (BinaryEncoder) Utils.testSerialization(encoder);
+                assertEquals(type, copy.encoderType());
+                assertArrayEquals(type + " of " + n, values, copy.decode());
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeBins() {
+        Random random = new Random(19);
+        for (BinaryEncoder.EncoderType type : BinaryEncoder.EncoderType.values()) {
+            if (isKeyEncoder(type))
+                continue;
+            int[] values = skewedBins(random, N);
+            BinaryEncoder encoder = BinaryEncoder.newEncoder(type);
+            encoder.encode(BinArray.of(values, BIN_NUM - 1));
+            assertArrayEquals(type.toString(), values, encoder.decodeBins(BIN_NUM - 1).toIntArray());
+        }
+    }
+
+    @Test
+    public void testWriteToReadFrom() {
+        Random random = new Random(23);
+        for (BinaryEncoder.EncoderType type : BinaryEncoder.EncoderType.values()) {
+            int[] values = valuesOf(type, random, N);
+            BinaryEncoder encoder = BinaryEncoder.newEncoder(type);
+            encoder.encode(values);
+            ByteBuffer buf = ByteBuffer.allocate(BinaryEncoder.encoderSize(encoder));
+            BinaryEncoder.writeEncoder(encoder, buf);
+            assertEquals(type.toString(), 0, buf.remaining());
+            buf.flip();
+            BinaryEncoder copy = BinaryEncoder.readEncoder(buf);
+            assertEquals(type.toString(), 0, buf.remaining());
+            assertArrayEquals(type.toString(), values, copy.decode());
+        }
+    }
+
+    @Test
+    public void testEncodeToDecodeInto() {
+        Random random = new Random(29);
+        for (BinaryEncoder.EncoderType type : BinaryEncoder.EncoderType.values()) {
+            for (boolean direct : new boolean[]{false, true}) {
+                int[] values = valuesOf(type, random, N);
+                int from = N / 4, to = N / 2;
+                ByteBuffer buf = direct ? ByteBuffer.allocateDirect(8 * N + 1024)
+                        : ByteBuffer.allocate(8 * N + 1024);
+                // two consecutive runs, the second one starts where the first one ends
+                BinaryEncoder encoder = BinaryEncoder.newEncoder(type);
+                encoder.encodeTo(values, from, to, buf);
+                encoder.encodeTo(values, to, N, buf);
+                buf.flip();
+                int[] dst = new int[N];
+                assertEquals(type.toString(), to - from, BinaryEncoder.decodedLength(buf));
+                assertEquals(type.toString(), to - from, encoder.decodeInto(buf, dst, from));
+                assertEquals(type.toString(), N - to, encoder.decodeInto(buf, dst, to));
+                assertEquals(type.toString(), 0, buf.remaining());
+                for (int i = from; i < N; i++)
+                    assertEquals(type + " at " + i, values[i], dst[i]);
+            }
+        }
+    }
+}
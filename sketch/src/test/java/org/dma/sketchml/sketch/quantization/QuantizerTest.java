@@ -0,0 +1,97 @@
+package org.dma.sketchml.sketch.quantization;
+
+import org.dma.sketchml.sketch.base.QuantileSketch;
+import org.dma.sketchml.sketch.base.Quantizer;
+import org.dma.sketchml.sketch.base.ValueArray;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class QuantizerTest {
+    private static final int N = 20000;
+    private static final int BIN_NUM = 64;
+
+    private static float[] floats;
+    private static double[] doubles;
+
+    static {
+        // doubles hold the same values as floats, so both are quantized alike
+        Random random = new Random(47);
+        floats = new float[N];
+        doubles = new double[N];
+        for (int i = 0; i < N; i++) {
+            floats[i] = (float) (random.nextGaussian() * 0.01);
+            doubles[i] = floats[i];
+        }
+    }
+
+    private static void assertSameBins(String msg, Quantizer expected, Quantizer actual) {
+        assertEquals(msg, expected.getN(), actual.getN());
+        assertEquals(msg, expected.getMin(), actual.getMin(), 0.0);
+        assertEquals(msg, expected.getMax(), actual.getMax(), 0.0);
+        assertArrayEquals(msg, expected.getSplits(), actual.getSplits(), 0.0);
+        assertArrayEquals(msg, expected.getBins().toIntArray(), actual.getBins().toIntArray());
+    }
+
+    /**
+     * Each value lies in the bin found by `indexOf`
+     */
+    private static void assertBinsOf(String msg, Quantizer quantizer, ValueArray values) {
+        assertEquals(msg, values.length(), quantizer.getN());
+        for (int i = 0; i < values.length(); i++)
+            assertEquals(msg + " at " + i, quantizer.indexOf(values.get(i)), quantizer.getBins().get(i));
+    }
+
+    @Test
+    public void testDoublesAndFloats() {
+        for (Quantizer.QuantizationType type : new Quantizer.QuantizationType[]{
+                Quantizer.QuantizationType.UNIFORM, Quantizer.QuantizationType.BLOCK}) {
+            Quantizer q1 = Quantizer.newQuantizer(type, BIN_NUM);
+            q1.quantize(doubles);
+            Quantizer q2 = Quantizer.newQuantizer(type, BIN_NUM);
+            q2.quantize(floats);
+            assertSameBins(type.toString(), q1, q2);
+            assertArrayEquals(type.toString(), q1.dequantize(), q2.dequantize(), 0.0);
+        }
+        // splits of a quantile quantizer are randomized, so both share one quantile sketch
+        QuantileSketch qSketch = QuantileSketch.newSketch(QuantileQuantizer.DEFAULT_SKETCH_TYPE, N);
+        qSketch.update(floats, 0, N);
+        QuantileQuantizer q1 = new QuantileQuantizer(BIN_NUM);
+        q1.quantize(doubles, qSketch);
+        QuantileQuantizer q2 = new QuantileQuantizer(BIN_NUM);
+        q2.quantize(floats, qSketch);
+        assertSameBins(Quantizer.QuantizationType.QUANTILE.toString(), q1, q2);
+    }
+
+    @Test
+    public void testBinsOfValues() {
+        for (Quantizer.QuantizationType type : new Quantizer.QuantizationType[]{
+                Quantizer.QuantizationType.UNIFORM, Quantizer.QuantizationType.QUANTILE}) {
+            for (ValueArray values : new ValueArray[]{ValueArray.of(doubles), ValueArray.of(floats)}) {
+                Quantizer quantizer = Quantizer.newQuantizer(type, BIN_NUM);
+                quantizer.quantize(values);
+                assertBinsOf(type.toString(), quantizer, values);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteToReadFrom() {
+        for (Quantizer.QuantizationType type : Quantizer.QuantizationType.values()) {
+            Quantizer quantizer = Quantizer.newQuantizer(type, BIN_NUM);
+            quantizer.quantize(floats);
+            ByteBuffer buf = ByteBuffer.allocate(quantizer.serializedSize());
+            quantizer.writeTo(buf);
+            assertEquals(type.toString(), 0, buf.remaining());
+            buf.flip();
+            Quantizer copy = Quantizer.newQuantizer(type, BIN_NUM);
+            copy.readFrom(buf);
+            assertEquals(type.toString(), 0, buf.remaining());
+            assertSameBins(type.toString(), quantizer, copy);
+        }
+    }
+}
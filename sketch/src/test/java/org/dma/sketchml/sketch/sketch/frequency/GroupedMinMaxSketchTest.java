@@ -0,0 +1,76 @@
+package org.dma.sketchml.sketch.sketch.frequency;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.dma.sketchml.sketch.base.BinArray;
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.util.Utils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GroupedMinMaxSketchTest {
+    private static final int N = 20000;
+    private static final int BIN_NUM = 256;
+    private static final int ZERO_VALUE = BIN_NUM / 2;
+
+    private static GroupedMinMaxSketch newSketch(BinaryEncoder.EncoderType keyEncoderType,
+                                                 BinaryEncoder.EncoderType tableEncoderType,
+                                                 boolean blocked, int[] keys, int[] bins) {
+        GroupedMinMaxSketch sketch = new GroupedMinMaxSketch(
+                GroupedMinMaxSketch.DEFAULT_MINMAXSKETCH_GROUP_NUM,
+                MinMaxSketch.DEFAULT_MINMAXSKETCH_ROW_NUM,
+                GroupedMinMaxSketch.DEFAULT_MINMAXSKETCH_COL_RATIO,
+                BIN_NUM, ZERO_VALUE, keyEncoderType, tableEncoderType);
+        sketch.setBlocked(blocked);
+        sketch.create(keys, BinArray.of(bins, BIN_NUM - 1));
+        return sketch;
+    }
+
+    @Test
+    public void testWriteToReadFrom() throws Exception {
+        Random random = new Random(43);
+        int[] keys = new int[N];
+        int[] bins = new int[N];
+        for (int i = 0, key = 0; i < N; i++) {
+            key += 1 + random.nextInt(10);
+            keys[i] = key;
+            bins[i] = Math.max(0, Math.min(BIN_NUM - 1,
+                    ZERO_VALUE + (int) (random.nextGaussian() * 16)));
+        }
+        BinaryEncoder.EncoderType[] keyEncoderTypes = {BinaryEncoder.EncoderType.DELTA_BINARY,
+                BinaryEncoder.EncoderType.DELTA_ADAPTIVE, BinaryEncoder.EncoderType.PFOR_DELTA,
+                BinaryEncoder.EncoderType.ELIAS_FANO};
+        for (BinaryEncoder.EncoderType keyEncoderType : keyEncoderTypes) {
+            for (boolean blocked : new boolean[]{false, true}) {
+                String msg = keyEncoderType + ", blocked " + blocked;
+                GroupedMinMaxSketch sketch = newSketch(keyEncoderType,
+                        MinMaxSketch.DEFAULT_TABLE_ENCODER_TYPE, blocked, keys, bins);
+                Pair<int[], BinArray> expected = sketch.restore();
+                // keys are coded losslessly
+                assertArrayEquals(msg, keys, expected.getLeft());
+
+                ByteBuffer buf = ByteBuffer.allocate(sketch.serializedSize());
+                sketch.writeTo(buf);
+                assertEquals(msg, 0, buf.remaining());
+                buf.flip();
+                GroupedMinMaxSketch copy = new GroupedMinMaxSketch(BIN_NUM, ZERO_VALUE);
+                copy.readFrom(buf);
+                assertEquals(msg, 0, buf.remaining());
+                assertEquals(msg, keyEncoderType, copy.getKeyEncoderType());
+                Pair<int[], BinArray> actual = copy.restore();
+                assertArrayEquals(msg, expected.getLeft(), actual.getLeft());
+                assertArrayEquals(msg, expected.getRight().toIntArray(), actual.getRight().toIntArray());
+
+                // Java serialization goes through writeTo and readFrom
+                copy = (GroupedMinMaxSketch) Utils.testSerialization(sketch);
+                actual = copy.restore();
+                assertArrayEquals(msg, expected.getLeft(), actual.getLeft());
+                assertArrayEquals(msg, expected.getRight().toIntArray(), actual.getRight().toIntArray());
+            }
+        }
+    }
+}
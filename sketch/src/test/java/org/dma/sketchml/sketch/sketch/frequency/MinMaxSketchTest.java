@@ -0,0 +1,101 @@
+package org.dma.sketchml.sketch.sketch.frequency;
+
+import org.dma.sketchml.sketch.base.BinaryEncoder;
+import org.dma.sketchml.sketch.base.SketchMLException;
+import org.dma.sketchml.sketch.util.Utils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MinMaxSketchTest {
+    private static final int N = 20000;
+    private static final int BIN_NUM = 256;
+    private static final int ZERO_VALUE = BIN_NUM / 2;
+
+    private static MinMaxSketch newSketch(BinaryEncoder.EncoderType tableEncoderType, boolean blocked,
+                                          int[] keys, int[] values) {
+        MinMaxSketch sketch = new MinMaxSketch(3, N / 3, ZERO_VALUE, BIN_NUM,
+                tableEncoderType, 31L, blocked);
+        sketch.insert(keys, values, 0, keys.length);
+        return sketch;
+    }
+
+    private static int[] queryAll(MinMaxSketch sketch, int[] keys) {
+        int[] res = new int[keys.length];
+        sketch.query(keys, 0, keys.length, res);
+        return res;
+    }
+
+    private static void fill(Random random, int[] keys, int[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(Integer.MAX_VALUE);
+            values[i] = Math.max(0, Math.min(BIN_NUM - 1,
+                    ZERO_VALUE + (int) (random.nextGaussian() * 16)));
+        }
+    }
+
+    @Test
+    public void testInsertQuery() {
+        Random random = new Random(37);
+        int[] keys = new int[N];
+        int[] values = new int[N];
+        fill(random, keys, values);
+        for (boolean blocked : new boolean[]{false, true}) {
+            MinMaxSketch batched = newSketch(null, blocked, keys, values);
+            MinMaxSketch scalar = new MinMaxSketch(3, N / 3, ZERO_VALUE, BIN_NUM, null, 31L, blocked);
+            for (int i = 0; i < N; i++)
+                scalar.insert(keys[i], values[i]);
+            int[] res = queryAll(batched, keys);
+            for (int i = 0; i < N; i++) {
+                assertEquals(scalar.query(keys[i]), res[i]);
+                // each cell keeps the closest value to `zeroValue`, so the queried one is never further
+                assertTrue(Math.abs(res[i] - ZERO_VALUE) <= Math.abs(values[i] - ZERO_VALUE));
+            }
+        }
+    }
+
+    @Test
+    public void testWriteToReadFrom() throws Exception {
+        Random random = new Random(41);
+        int[] keys = new int[N];
+        int[] values = new int[N];
+        fill(random, keys, values);
+        BinaryEncoder.EncoderType[] types = {null, BinaryEncoder.EncoderType.HUFFMAN,
+                BinaryEncoder.EncoderType.CANONICAL_HUFFMAN, BinaryEncoder.EncoderType.RANS,
+                BinaryEncoder.EncoderType.BIT_PACKING};
+        for (BinaryEncoder.EncoderType type : types) {
+            for (boolean blocked : new boolean[]{false, true}) {
+                MinMaxSketch sketch = newSketch(type, blocked, keys, values);
+                int[] expected = queryAll(sketch, keys);
+                ByteBuffer buf = ByteBuffer.allocate(sketch.serializedSize());
+                sketch.writeTo(buf);
+                assertEquals(0, buf.remaining());
+                buf.flip();
+                MinMaxSketch copy = new MinMaxSketch();
+                copy.readFrom(buf);
+                assertEquals(0, buf.remaining());
+                assertEquals(blocked, copy.isBlocked());
+                assertArrayEquals(type + ", blocked " + blocked, expected, queryAll(copy, keys));
+                // Java serialization goes through writeTo and readFrom
+                copy = (MinMaxSketch) Utils.testSerialization(sketch);
+                assertArrayEquals(type + ", blocked " + blocked, expected, queryAll(copy, keys));
+            }
+        }
+    }
+
+    @Test(expected = SketchMLException.class)
+    public void testRejectSortedKeyTableEncoder() {
+        new MinMaxSketch(3, 100, ZERO_VALUE, BIN_NUM, BinaryEncoder.EncoderType.DELTA_BINARY, 31L, false);
+    }
+
+    @Test(expected = SketchMLException.class)
+    public void testRejectNegativeValue() {
+        MinMaxSketch sketch = new MinMaxSketch(3, 100, 0, BinaryEncoder.EncoderType.BIT_PACKING);
+        sketch.insert(1, -1);
+    }
+}